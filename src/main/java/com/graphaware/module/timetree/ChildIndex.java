@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import org.neo4j.graphdb.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Index of the children of a time tree node, stored on the node itself as two parallel array properties: the values
+ * of the children in ascending order and the corresponding node IDs. It allows children to be found by binary search
+ * instead of walking the chain of siblings.
+ * <p/>
+ * Instances are immutable snapshots. Modifications produce new instances, which must be written back to the parent.
+ */
+class ChildIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChildIndex.class);
+
+    static final String CHILD_VALUES_PROPERTY = "childValues";
+    static final String CHILD_IDS_PROPERTY = "childIds";
+
+    private final int[] values;
+    private final long[] ids;
+
+    ChildIndex(int[] values, long[] ids) {
+        this.values = values;
+        this.ids = ids;
+    }
+
+    /**
+     * Read the index stored on a node.
+     *
+     * @param parent node to read the index from.
+     * @return index, <code>null</code> if the node has no (consistent) index.
+     */
+    static ChildIndex read(Node parent) {
+        Object values = parent.getProperty(CHILD_VALUES_PROPERTY, null);
+        Object ids = parent.getProperty(CHILD_IDS_PROPERTY, null);
+
+        if (!(values instanceof int[]) || !(ids instanceof long[]) || ((int[]) values).length != ((long[]) ids).length) {
+            return null;
+        }
+
+        return new ChildIndex((int[]) values, (long[]) ids);
+    }
+
+    /**
+     * Write the index to a node.
+     *
+     * @param parent node to write the index to.
+     */
+    void write(Node parent) {
+        parent.setProperty(CHILD_VALUES_PROPERTY, values);
+        parent.setProperty(CHILD_IDS_PROPERTY, ids);
+    }
+
+    /**
+     * Search for the position of a child with the given value.
+     *
+     * @param value to search for.
+     * @return position of the child, if present; otherwise, <code>(-(insertion point) - 1)</code>, as
+     * {@link Arrays#binarySearch(int[], int)} does.
+     */
+    int search(int value) {
+        return Arrays.binarySearch(values, value);
+    }
+
+    /**
+     * @return number of indexed children.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param position of a child.
+     * @return ID of the child at the given position.
+     */
+    long idAt(int position) {
+        return ids[position];
+    }
+
+    /**
+     * Create a copy of this index with a new child.
+     *
+     * @param value value of the child.
+     * @param id    ID of the child.
+     * @return new index.
+     */
+    ChildIndex with(int value, long id) {
+        int position = search(value);
+        if (position >= 0) {
+            LOG.error("Child with value " + value + " is already indexed. This is a bug.");
+            throw new IllegalStateException("Child with value " + value + " is already indexed. This is a bug.");
+        }
+        position = -position - 1;
+
+        int[] newValues = new int[values.length + 1];
+        long[] newIds = new long[ids.length + 1];
+
+        System.arraycopy(values, 0, newValues, 0, position);
+        System.arraycopy(ids, 0, newIds, 0, position);
+        newValues[position] = value;
+        newIds[position] = id;
+        System.arraycopy(values, position, newValues, position + 1, values.length - position);
+        System.arraycopy(ids, position, newIds, position + 1, ids.length - position);
+
+        return new ChildIndex(newValues, newIds);
+    }
+
+    /**
+     * Create a copy of this index without a child.
+     *
+     * @param id ID of the child.
+     * @return new index, this index if the child isn't indexed.
+     */
+    ChildIndex without(long id) {
+        for (int position = 0; position < ids.length; position++) {
+            if (ids[position] == id) {
+                int[] newValues = new int[values.length - 1];
+                long[] newIds = new long[ids.length - 1];
+
+                System.arraycopy(values, 0, newValues, 0, position);
+                System.arraycopy(ids, 0, newIds, 0, position);
+                System.arraycopy(values, position + 1, newValues, position, values.length - position - 1);
+                System.arraycopy(ids, position + 1, newIds, position, ids.length - position - 1);
+
+                return new ChildIndex(newValues, newIds);
+            }
+        }
+
+        return this;
+    }
+}
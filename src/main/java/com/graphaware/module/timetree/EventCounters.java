@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import org.neo4j.graphdb.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Materialised counts of events attached to time instants, per relationship type. Each time instant node stores the
+ * number of events attached to it and all its children, so the number of events in a range can be read from the
+ * instants at the range's resolution without visiting their children. The root of a tree whose counters are maintained
+ * lists the counted relationship types.
+ * <p/>
+ * Changes are first recorded and then applied at once by {@link #apply()}, which write-locks the affected nodes from
+ * the top of the tree down, so that concurrent transactions updating the same ancestors do not deadlock on each other.
+ * Instances are not thread-safe and must only be used within a single transaction.
+ */
+public class EventCounters {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventCounters.class);
+
+    static final String COUNT_PROPERTY_PREFIX = "eventCount_";
+    static final String COUNTED_TYPES_PROPERTY = "countedEventTypes";
+
+    static final Comparator<Node> BY_ID = new Comparator<Node>() {
+        @Override
+        public int compare(Node n1, Node n2) {
+            return Long.compare(n1.getId(), n2.getId());
+        }
+    };
+
+    private final Set<String> countedTypes;
+
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private final Map<Long, Integer> depths = new HashMap<>();
+    private final Map<Long, Node> roots = new HashMap<>();
+    private final Map<Long, Map<String, Long>> deltas = new HashMap<>();
+
+    /**
+     * Create new counters.
+     *
+     * @param countedTypes types of relationships attaching events whose counts are maintained.
+     */
+    public EventCounters(Collection<RelationshipType> countedTypes) {
+        this.countedTypes = names(countedTypes);
+    }
+
+    /**
+     * Record a change in the number of events attached to a time instant. Changes to instants that aren't part of a
+     * tree and to relationship types that aren't counted are ignored.
+     *
+     * @param instant time instant node, must not have been deleted.
+     * @param type    of the relationship attaching the event(s).
+     * @param delta   change in the number of events.
+     */
+    public void record(Node instant, RelationshipType type, long delta) {
+        if (!countedTypes.contains(type.name()) || !isInstant(instant)) {
+            return;
+        }
+
+        List<Node> path = new ArrayList<>();
+        Node current = instant;
+        Relationship parentRelationship;
+        while ((parentRelationship = current.getSingleRelationship(CHILD, INCOMING)) != null) {
+            path.add(current);
+            current = parentRelationship.getStartNode();
+        }
+
+        Node root = current;
+        roots.put(root.getId(), root);
+
+        for (int i = 0; i < path.size(); i++) {
+            Node node = path.get(i);
+            nodes.put(node.getId(), node);
+            depths.put(node.getId(), path.size() - i);
+
+            Map<String, Long> nodeDeltas = deltas.get(node.getId());
+            if (nodeDeltas == null) {
+                nodeDeltas = new HashMap<>();
+                deltas.put(node.getId(), nodeDeltas);
+            }
+
+            Long previous = nodeDeltas.get(type.name());
+            nodeDeltas.put(type.name(), (previous == null ? 0 : previous) + delta);
+        }
+    }
+
+    /**
+     * Apply all recorded changes. Must be called within a transaction.
+     * <p/>
+     * Nothing is rebuilt here. The counters of all existing trees are rebuilt by {@link #rebuild(Node, Collection)} when
+     * the module is initialized, so a tree whose counters aren't maintained yet has been created since, and all its
+     * events have been recorded as they were attached. Such a tree is marked as maintained, under a write lock on its
+     * root, and the recorded changes are applied to it like to any other tree. Concurrent transactions adding the first
+     * events to a new tree therefore simply add up their changes, and no transaction has to walk a whole tree.
+     */
+    public void apply() {
+        if (nodes.isEmpty()) {
+            clear();
+            return;
+        }
+
+        List<Node> newRoots = new ArrayList<>();
+        for (Node root : roots.values()) {
+            if (!isMaintained(root, countedTypes)) {
+                newRoots.add(root);
+            }
+        }
+
+        List<Node> toUpdate = new ArrayList<>(nodes.values());
+
+        Collections.sort(newRoots, BY_ID);
+        Collections.sort(toUpdate, new Comparator<Node>() {
+            @Override
+            public int compare(Node n1, Node n2) {
+                int result = Integer.compare(depths.get(n1.getId()), depths.get(n2.getId()));
+                return result != 0 ? result : Long.compare(n1.getId(), n2.getId());
+            }
+        });
+
+        try (Transaction tx = toUpdate.get(0).getGraphDatabase().beginTx()) {
+            //roots first, keeping the top-down locking order
+            for (Node root : newRoots) {
+                tx.acquireWriteLock(root);
+                if (!isMaintained(root, countedTypes)) {
+                    LOG.info("Event counters of the tree rooted at " + root + " are not maintained yet, starting to maintain them");
+                    mark(root, countedTypes);
+                }
+            }
+
+            for (Node node : toUpdate) {
+                tx.acquireWriteLock(node);
+
+                for (Map.Entry<String, Long> delta : deltas.get(node.getId()).entrySet()) {
+                    if (delta.getValue() != 0) {
+                        setCount(node, delta.getKey(), getCount(node, delta.getKey()) + delta.getValue());
+                    }
+                }
+            }
+            tx.success();
+        }
+
+        clear();
+    }
+
+    private void clear() {
+        nodes.clear();
+        depths.clear();
+        roots.clear();
+        deltas.clear();
+    }
+
+    /**
+     * Recompute the counters of a whole tree from scratch and mark the tree as maintained. Each year is recomputed in
+     * a separate transaction, unless called within an existing one. Meant for initialization and repairs, when the tree
+     * isn't being written to.
+     *
+     * @param root         of the tree.
+     * @param countedTypes types of relationships attaching events whose counts are maintained.
+     */
+    public static void rebuild(Node root, Collection<RelationshipType> countedTypes) {
+        rebuild(root, names(countedTypes));
+    }
+
+    private static void rebuild(Node root, Set<String> countedTypes) {
+        GraphDatabaseService database = root.getGraphDatabase();
+
+        List<Node> years = new ArrayList<>();
+        try (Transaction tx = database.beginTx()) {
+            root.removeProperty(COUNTED_TYPES_PROPERTY);
+            years.addAll(children(root));
+            tx.success();
+        }
+
+        for (Node year : years) {
+            try (Transaction tx = database.beginTx()) {
+                rebuildSubtree(year, countedTypes);
+                tx.success();
+            }
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            mark(root, countedTypes);
+            tx.success();
+        }
+    }
+
+    private static void mark(Node root, Set<String> countedTypes) {
+        String[] types = countedTypes.toArray(new String[countedTypes.size()]);
+        Arrays.sort(types);
+        root.setProperty(COUNTED_TYPES_PROPERTY, types);
+    }
+
+    private static Map<String, Long> rebuildSubtree(Node instant, Set<String> countedTypes) {
+        Map<String, Long> counts = new HashMap<>();
+        for (String type : countedTypes) {
+            counts.put(type, (long) instant.getDegree(DynamicRelationshipType.withName(type), INCOMING));
+        }
+
+        for (Node child : children(instant)) {
+            for (Map.Entry<String, Long> childCount : rebuildSubtree(child, countedTypes).entrySet()) {
+                counts.put(childCount.getKey(), counts.get(childCount.getKey()) + childCount.getValue());
+            }
+        }
+
+        for (String key : instant.getPropertyKeys()) {
+            if (key.startsWith(COUNT_PROPERTY_PREFIX)) {
+                instant.removeProperty(key);
+            }
+        }
+
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            setCount(instant, count.getKey(), count.getValue());
+        }
+
+        return counts;
+    }
+
+    /**
+     * Stop maintaining the counters of a tree, so that they are no longer used for counting events. The counts
+     * themselves are left in place.
+     *
+     * @param root of the tree.
+     */
+    public static void unmark(Node root) {
+        root.removeProperty(COUNTED_TYPES_PROPERTY);
+    }
+
+    /**
+     * Find the roots of all trees in the database, i.e. the parents of all years.
+     *
+     * @param database to search.
+     * @return roots.
+     */
+    public static Collection<Node> findRoots(GraphDatabaseService database) {
+        Map<Long, Node> result = new HashMap<>();
+
+        try (ResourceIterator<Node> years = database.findNodes(Resolution.YEAR.getLabel())) {
+            while (years.hasNext()) {
+                Relationship parentRelationship = years.next().getSingleRelationship(CHILD, INCOMING);
+                if (parentRelationship != null) {
+                    result.put(parentRelationship.getStartNode().getId(), parentRelationship.getStartNode());
+                }
+            }
+        }
+
+        return result.values();
+    }
+
+    /**
+     * Are the counters of the tree a time instant belongs to maintained for all the given types?
+     *
+     * @param instant time instant node.
+     * @param types   of relationships attaching events.
+     * @return true iff the counters can be used to count events of the given types.
+     */
+    static boolean isMaintained(Node instant, RelationshipType[] types) {
+        Set<String> names = new HashSet<>();
+        for (RelationshipType type : types) {
+            names.add(type.name());
+        }
+
+        return isMaintained(root(instant), names);
+    }
+
+    /**
+     * Read the number of events attached to a time instant and all its children from its counters. Only valid if
+     * {@link #isMaintained(Node, RelationshipType[])} for the instant and types.
+     *
+     * @param instant time instant node.
+     * @param types   of relationships attaching events, distinct.
+     * @return number of events.
+     */
+    static long count(Node instant, RelationshipType[] types) {
+        long count = 0;
+        for (RelationshipType type : types) {
+            count += getCount(instant, type.name());
+        }
+        return count;
+    }
+
+    private static boolean isMaintained(Node root, Set<String> types) {
+        Object counted = root.getProperty(COUNTED_TYPES_PROPERTY, null);
+        if (!(counted instanceof String[])) {
+            return false;
+        }
+
+        return Arrays.asList((String[]) counted).containsAll(types);
+    }
+
+    static Node root(Node instant) {
+        Node current = instant;
+        Relationship parentRelationship;
+        while ((parentRelationship = current.getSingleRelationship(CHILD, INCOMING)) != null) {
+            current = parentRelationship.getStartNode();
+        }
+        return current;
+    }
+
+    static boolean isInstant(Node node) {
+        for (Resolution resolution : Resolution.values()) {
+            if (node.hasLabel(resolution.getLabel())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<Node> children(Node parent) {
+        List<Node> result = new ArrayList<>();
+
+        Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
+        if (firstRelationship == null) {
+            return result;
+        }
+
+        long lastChildId = parent.getSingleRelationship(LAST, OUTGOING).getEndNode().getId();
+        Node child = firstRelationship.getEndNode();
+        result.add(child);
+        while (child.getId() != lastChildId) {
+            child = child.getSingleRelationship(NEXT, OUTGOING).getEndNode();
+            result.add(child);
+        }
+
+        return result;
+    }
+
+    private static long getCount(Node instant, String type) {
+        return ((Number) instant.getProperty(COUNT_PROPERTY_PREFIX + type, 0L)).longValue();
+    }
+
+    private static void setCount(Node instant, String type, long count) {
+        if (count < 0) {
+            LOG.warn("Event counter of type " + type + " on " + instant + " would become negative, the counters should be rebuilt");
+            count = 0;
+        }
+
+        instant.setProperty(COUNT_PROPERTY_PREFIX + type, count);
+    }
+
+    private static Set<String> names(Collection<RelationshipType> types) {
+        Set<String> result = new HashSet<>();
+        for (RelationshipType type : types) {
+            if (!getTimeTreeRelationshipNames().contains(type.name())) {
+                result.add(type.name());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.SortOrder;
+import org.neo4j.graphdb.*;
+
+import java.util.*;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Lazy iterator over events attached to time instants and all their children. The subtree of each time instant is
+ * traversed depth-first, children before their parent, so events are returned in chronological order with events
+ * attached to higher resolution instants before events attached to lower resolution ones.
+ * <p/>
+ * In {@link SortOrder#DESCENDING} order, the traversal is mirrored: children are visited from the last one backwards
+ * and each node's own events are returned before its children's, so events are returned in reverse chronological order
+ * and only the tail of the tree is touched when the iterator isn't fully consumed.
+ * <p/>
+ * Only the path from the current time instant to the node being visited is held in memory. The iterator must be
+ * consumed within a transaction.
+ * <p/>
+ * The position of the iterator after the last returned event can be obtained as an opaque cursor, from which another
+ * iterator can later resume, without visiting the events before the cursor again.
+ */
+class EventIterator implements Iterator<Event> {
+
+    private static final Set<String> TIME_TREE_RELATIONSHIPS = new HashSet<>(getTimeTreeRelationshipNames());
+
+    private final Iterator<Node> instants;
+    private final RelationshipType[] types;
+    private final boolean descending;
+    private final Deque<Frame> path = new ArrayDeque<>();
+
+    private Node currentNode;
+    private Iterator<Relationship> currentRelationships;
+
+    private Event next;
+    private Node nextNode;
+    private Relationship nextRelationship;
+
+    private Node lastNode;
+    private Relationship lastRelationship;
+
+    /**
+     * Create a new iterator.
+     *
+     * @param instants time instants whose events (including their children's events) to iterate over, in order.
+     * @param types    of the relationships between the events and the time instants, <code>null</code> for all.
+     */
+    EventIterator(Iterator<Node> instants, Set<RelationshipType> types) {
+        this(instants, types, SortOrder.ASCENDING);
+    }
+
+    /**
+     * Create a new iterator.
+     *
+     * @param instants time instants whose events (including their children's events) to iterate over, in the given
+     *                 order.
+     * @param types    of the relationships between the events and the time instants, <code>null</code> for all.
+     * @param order    in which the events are iterated over.
+     */
+    EventIterator(Iterator<Node> instants, Set<RelationshipType> types, SortOrder order) {
+        this.instants = instants;
+        this.types = eventTypes(types);
+        this.descending = order == SortOrder.DESCENDING;
+    }
+
+    /**
+     * Create an iterator resuming from a cursor obtained from an iterator over the same range.
+     *
+     * @param database        to find the nodes referred to by the cursor in.
+     * @param cursor          obtained by {@link #getCursor()}.
+     * @param rangeResolution resolution of the range being iterated.
+     * @param lastInstant     last time instant of the range to be visited in the given order (inclusive), at the
+     *                        range's resolution. That is the end of the range when ascending, its start when descending.
+     * @param types           of the relationships between the events and the time instants, <code>null</code> for all.
+     * @param order           in which the events are iterated over, must be the same as when the cursor was obtained.
+     * @return iterator over the events following the cursor.
+     * @throws IllegalArgumentException if the cursor is malformed or no longer valid.
+     */
+    static EventIterator resume(GraphDatabaseService database, String cursor, Resolution rangeResolution, Node lastInstant, Set<RelationshipType> types, SortOrder order) {
+        long nodeId;
+        long relationshipId;
+        try {
+            String[] parts = cursor.split("_");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            nodeId = Long.parseLong(parts[0]);
+            relationshipId = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+
+        Node node;
+        try {
+            node = database.getNodeById(nodeId);
+        } catch (NotFoundException e) {
+            throw new IllegalArgumentException("Cursor " + cursor + " is no longer valid, its time instant has been removed");
+        }
+
+        if (Resolution.findForNode(node).compareTo(rangeResolution) < 0) {
+            throw new IllegalArgumentException("Cursor " + cursor + " does not belong to a range with resolution " + rangeResolution);
+        }
+
+        //path from the time instant at the range's resolution down to the cursor's node
+        LinkedList<Node> ancestors = new LinkedList<>();
+        ancestors.addFirst(node);
+        while (Resolution.findForNode(ancestors.getFirst()).compareTo(rangeResolution) > 0) {
+            ancestors.addFirst(SingleTimeTree.parent(ancestors.getFirst()));
+        }
+
+        Direction direction = order == SortOrder.DESCENDING ? INCOMING : OUTGOING;
+
+        Node top = ancestors.getFirst();
+        Iterator<Node> instants;
+        Relationship afterTop = top.getSingleRelationship(NEXT, direction);
+        if (top.getId() == lastInstant.getId() || afterTop == null) {
+            instants = Collections.emptyIterator();
+        } else {
+            instants = new InstantIterator(afterTop.getOtherNode(top), lastInstant, direction);
+        }
+
+        EventIterator iterator = new EventIterator(instants, types, order);
+
+        Iterator<Node> path = ancestors.iterator();
+        Node ancestor = path.next();
+        while (path.hasNext()) {
+            Node child = path.next();
+            iterator.path.push(new Frame(ancestor, child, iterator.descending));
+            ancestor = child;
+        }
+
+        if (iterator.descending) {
+            //the node's own events come before its children, which are yet to be visited
+            iterator.path.push(new Frame(node, iterator.descending));
+        }
+
+        //relationships of a node have no order to resume from other than the position of the cursor's own relationship,
+        //so the cursor can't be used once that one is gone, otherwise all the node's remaining events would be skipped
+        iterator.currentNode = node;
+        iterator.currentRelationships = iterator.relationships(node);
+        while (iterator.currentRelationships.hasNext()) {
+            if (iterator.currentRelationships.next().getId() == relationshipId) {
+                return iterator;
+            }
+        }
+
+        throw new IllegalArgumentException("Cursor " + cursor + " is no longer valid, its event has been detached");
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = findNext();
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public Event next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Event result = next;
+        lastNode = nextNode;
+        lastRelationship = nextRelationship;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private Event findNext() {
+        while (true) {
+            if (currentRelationships != null) {
+                while (currentRelationships.hasNext()) {
+                    Relationship relationship = currentRelationships.next();
+                    if (isEvent(relationship)) {
+                        nextNode = currentNode;
+                        nextRelationship = relationship;
+                        return new Event(relationship.getOtherNode(currentNode), relationship.getType());
+                    }
+                }
+
+                currentRelationships = null;
+                currentNode = null;
+            }
+
+            if (path.isEmpty()) {
+                if (!instants.hasNext()) {
+                    return null;
+                }
+
+                enter(instants.next());
+                continue;
+            }
+
+            Frame frame = path.peek();
+            Node child = frame.nextChild();
+
+            if (child != null) {
+                enter(child);
+            } else {
+                path.pop();
+                if (!descending) {
+                    //all children visited, the node's own events come next
+                    visit(frame.node);
+                }
+            }
+        }
+    }
+
+    private void enter(Node node) {
+        path.push(new Frame(node, descending));
+        if (descending) {
+            //the node's own events come before its children
+            visit(node);
+        }
+    }
+
+    private void visit(Node node) {
+        currentNode = node;
+        currentRelationships = relationships(node);
+    }
+
+    /**
+     * Get the incoming relationships of a node that may attach events to it. When the types are given, only the
+     * relationships of those types are loaded, so the cost is proportional to the number of matching events.
+     *
+     * @param node time instant.
+     * @return candidate relationships, always in the same order for the same node and types.
+     */
+    private Iterator<Relationship> relationships(Node node) {
+        if (types == null) {
+            return node.getRelationships(INCOMING).iterator();
+        }
+
+        if (types.length == 0) {
+            return Collections.emptyIterator();
+        }
+
+        return node.getRelationships(INCOMING, types).iterator();
+    }
+
+    /**
+     * Get an opaque cursor representing the position of this iterator after the last returned event.
+     *
+     * @return cursor, <code>null</code> if no event has been returned yet.
+     */
+    String getCursor() {
+        if (lastNode == null) {
+            return null;
+        }
+
+        return lastNode.getId() + "_" + lastRelationship.getId();
+    }
+
+    private boolean isEvent(Relationship relationship) {
+        //time tree relationship types have already been removed from the requested types
+        return types != null || !TIME_TREE_RELATIONSHIPS.contains(relationship.getType().name());
+    }
+
+    /**
+     * Convert the requested relationship types to an array of distinct types, excluding the time tree's own.
+     *
+     * @param types requested types, <code>null</code> for all.
+     * @return types of relationships attaching events, <code>null</code> for all.
+     */
+    static RelationshipType[] eventTypes(Set<RelationshipType> types) {
+        if (types == null) {
+            return null;
+        }
+
+        Map<String, RelationshipType> result = new LinkedHashMap<>();
+        for (RelationshipType type : types) {
+            if (!TIME_TREE_RELATIONSHIPS.contains(type.name())) {
+                result.put(type.name(), type);
+            }
+        }
+
+        return result.values().toArray(new RelationshipType[result.size()]);
+    }
+
+    /**
+     * A node on the path being traversed, with the position reached among its children.
+     */
+    private static class Frame {
+
+        private final Node node;
+        private final boolean descending;
+        private Node lastChild;
+        private Node currentChild;
+        private boolean started;
+
+        private Frame(Node node, boolean descending) {
+            this.node = node;
+            this.descending = descending;
+        }
+
+        /**
+         * Create a frame positioned at one of the node's children, i.e. one whose children following the given one are
+         * still to be visited.
+         *
+         * @param node         node.
+         * @param currentChild child of the node being visited.
+         * @param descending   <code>true</code> iff the children are visited from the last one backwards.
+         */
+        private Frame(Node node, Node currentChild, boolean descending) {
+            this.node = node;
+            this.descending = descending;
+            this.started = true;
+            this.lastChild = node.getSingleRelationship(descending ? FIRST : LAST, OUTGOING).getEndNode();
+            this.currentChild = currentChild;
+        }
+
+        /**
+         * @return the next child of the node in the traversal order, <code>null</code> if all children have been visited.
+         */
+        private Node nextChild() {
+            if (!started) {
+                started = true;
+
+                Relationship firstRelationship = node.getSingleRelationship(descending ? LAST : FIRST, OUTGOING);
+                if (firstRelationship == null) {
+                    return null;
+                }
+
+                lastChild = node.getSingleRelationship(descending ? FIRST : LAST, OUTGOING).getEndNode();
+                currentChild = firstRelationship.getEndNode();
+                return currentChild;
+            }
+
+            if (currentChild == null || currentChild.getId() == lastChild.getId()) {
+                currentChild = null;
+                return null;
+            }
+
+            currentChild = currentChild.getSingleRelationship(NEXT, descending ? INCOMING : OUTGOING).getOtherNode(currentChild);
+            return currentChild;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Aggregate;
+import com.graphaware.module.timetree.domain.Aggregation;
+import com.graphaware.module.timetree.domain.Rollup;
+import org.neo4j.graphdb.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.CHILD;
+import static org.neo4j.graphdb.Direction.INCOMING;
+
+/**
+ * Materialised aggregates of numeric event properties, rolled up along the time tree as defined by a {@link Rollup}.
+ * Each time instant node stores the aggregates of the values of the events attached to it and all its children with a
+ * single relationship type, so the aggregate of a range can be computed from a few time instants without visiting
+ * any events. The root of a tree whose rollups are maintained stores the relationship type and the rollup definition.
+ * <p/>
+ * Sums and counts are updated incrementally. Minimums and maximums are updated incrementally as values are added, but
+ * have to be recomputed from the time instant's own events and its children when a value equal to the current minimum
+ * or maximum is removed.
+ * <p/>
+ * Like {@link EventCounters}, changes are first recorded and then applied at once by {@link #apply()}, which write-locks
+ * the affected nodes from the top of the tree down and then updates them bottom-up. Instances are not thread-safe and
+ * must only be used within a single transaction.
+ */
+public class EventRollups {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventRollups.class);
+
+    static final String ROLLUP_PROPERTY_PREFIX = "rollup_";
+    static final String ROLLUP_TYPE_PROPERTY = "rollupType";
+    static final String ROLLUP_DEFINITION_PROPERTY = "rollupDefinition";
+
+    private static final String COUNT = "count";
+    private static final String SUM = "sum";
+    private static final String MIN = "min";
+    private static final String MAX = "max";
+
+    private final Rollup rollup;
+    private final RelationshipType type;
+
+    private final Map<Long, Node> nodes = new HashMap<>();
+    private final Map<Long, Integer> depths = new HashMap<>();
+    private final Map<Long, Node> roots = new HashMap<>();
+    private final Map<Long, Map<String, Delta>> deltas = new HashMap<>();
+
+    /**
+     * Create new rollups.
+     *
+     * @param rollup definition of the rolled up properties and aggregations.
+     * @param type   of relationships attaching the events whose values are rolled up.
+     */
+    public EventRollups(Rollup rollup, RelationshipType type) {
+        this.rollup = rollup;
+        this.type = type;
+    }
+
+    /**
+     * Record an event having been attached to a time instant.
+     *
+     * @param instant time instant node, must not have been deleted.
+     * @param event   the event, with the property values it has been attached with.
+     * @param type    of the relationship attaching the event.
+     */
+    public void attached(Node instant, PropertyContainer event, RelationshipType type) {
+        record(instant, event, type, true);
+    }
+
+    /**
+     * Record an event having been detached from a time instant.
+     *
+     * @param instant time instant node, must not have been deleted.
+     * @param event   the event, with the property values it had while attached (i.e. the state before the transaction).
+     * @param type    of the relationship that attached the event.
+     */
+    public void detached(Node instant, PropertyContainer event, RelationshipType type) {
+        record(instant, event, type, false);
+    }
+
+    private void record(Node instant, PropertyContainer event, RelationshipType type, boolean attached) {
+        if (!this.type.name().equals(type.name()) || !EventCounters.isInstant(instant)) {
+            return;
+        }
+
+        Map<String, Double> values = new HashMap<>();
+        for (String property : rollup.getProperties()) {
+            Double value = value(event, property);
+            if (value != null) {
+                values.put(property, value);
+            }
+        }
+
+        if (values.isEmpty()) {
+            return;
+        }
+
+        List<Node> path = new ArrayList<>();
+        Node current = instant;
+        Relationship parentRelationship;
+        while ((parentRelationship = current.getSingleRelationship(CHILD, INCOMING)) != null) {
+            path.add(current);
+            current = parentRelationship.getStartNode();
+        }
+
+        Node root = current;
+        roots.put(root.getId(), root);
+
+        for (int i = 0; i < path.size(); i++) {
+            Node node = path.get(i);
+            nodes.put(node.getId(), node);
+            depths.put(node.getId(), path.size() - i);
+
+            Map<String, Delta> nodeDeltas = deltas.get(node.getId());
+            if (nodeDeltas == null) {
+                nodeDeltas = new HashMap<>();
+                deltas.put(node.getId(), nodeDeltas);
+            }
+
+            for (Map.Entry<String, Double> value : values.entrySet()) {
+                Delta delta = nodeDeltas.get(value.getKey());
+                if (delta == null) {
+                    delta = new Delta();
+                    nodeDeltas.put(value.getKey(), delta);
+                }
+
+                if (attached) {
+                    delta.attached(value.getValue());
+                } else {
+                    delta.detached(value.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply all recorded changes. Must be called within a transaction.
+     * <p/>
+     * The rollups of existing trees are rebuilt when the module is initialized, so a tree whose rollups aren't
+     * maintained at this point has just been created and all its events have been recorded here. Such a tree is
+     * marked as maintained under a write lock on its root, so that concurrent transactions creating the first events
+     * of the same tree only ever apply their own changes, never rebuilding the tree within a committing transaction.
+     */
+    public void apply() {
+        if (nodes.isEmpty()) {
+            clear();
+            return;
+        }
+
+        List<Node> newRoots = new ArrayList<>();
+        for (Node root : roots.values()) {
+            if (!isMaintained(root, rollup, type)) {
+                newRoots.add(root);
+            }
+        }
+
+        List<Node> toUpdate = new ArrayList<>(nodes.values());
+
+        Collections.sort(newRoots, EventCounters.BY_ID);
+        Collections.sort(toUpdate, new Comparator<Node>() {
+            @Override
+            public int compare(Node n1, Node n2) {
+                int result = Integer.compare(depths.get(n1.getId()), depths.get(n2.getId()));
+                return result != 0 ? result : Long.compare(n1.getId(), n2.getId());
+            }
+        });
+
+        try (Transaction tx = toUpdate.get(0).getGraphDatabase().beginTx()) {
+            //roots first, keeping the top-down locking order
+            for (Node root : newRoots) {
+                tx.acquireWriteLock(root);
+                if (!isMaintained(root, rollup, type)) {
+                    if (root.hasProperty(ROLLUP_DEFINITION_PROPERTY)) {
+                        LOG.warn("Rollups of the tree rooted at " + root + " have been maintained with a different definition, they should be rebuilt");
+                    }
+                    LOG.info("Rollups of the tree rooted at " + root + " are not maintained yet, starting to maintain them");
+                    mark(root, rollup, type);
+                }
+            }
+
+            for (Node node : toUpdate) {
+                tx.acquireWriteLock(node);
+            }
+
+            //children first, so that recomputed minimums and maximums can rely on their children's values
+            for (int i = toUpdate.size() - 1; i >= 0; i--) {
+                Node node = toUpdate.get(i);
+                for (Map.Entry<String, Delta> delta : deltas.get(node.getId()).entrySet()) {
+                    update(node, delta.getKey(), delta.getValue());
+                }
+            }
+
+            tx.success();
+        }
+
+        clear();
+    }
+
+    private void clear() {
+        nodes.clear();
+        depths.clear();
+        roots.clear();
+        deltas.clear();
+    }
+
+    private void update(Node instant, String property, Delta delta) {
+        long previousCount = getCount(instant, property);
+        long count = previousCount + delta.count;
+
+        if (count <= 0) {
+            if (count < 0) {
+                LOG.warn("Rollup count of " + property + " on " + instant + " would become negative, the rollups should be rebuilt");
+            }
+            write(instant, property, Aggregate.EMPTY);
+            return;
+        }
+
+        Set<Aggregation> aggregations = rollup.getAggregations(property);
+        Aggregate stored = read(instant, property);
+
+        Double sum = null;
+        if (rollup.hasSum(property)) {
+            sum = (stored.getSum() == null ? 0 : stored.getSum()) + delta.sum;
+        }
+
+        Double min = stored.getMin();
+        Double max = stored.getMax();
+        boolean recompute = (aggregations.contains(Aggregation.MIN) && delta.detachedMin != null && (min == null || delta.detachedMin <= min))
+                || (aggregations.contains(Aggregation.MAX) && delta.detachedMax != null && (max == null || delta.detachedMax >= max))
+                || (previousCount > 0 && ((aggregations.contains(Aggregation.MIN) && min == null) || (aggregations.contains(Aggregation.MAX) && max == null)));
+
+        if (recompute) {
+            Aggregate recomputed = recompute(instant, property);
+            min = recomputed.getMin();
+            max = recomputed.getMax();
+        } else {
+            min = min == null ? delta.attachedMin : delta.attachedMin == null ? min : Math.min(min, delta.attachedMin);
+            max = max == null ? delta.attachedMax : delta.attachedMax == null ? max : Math.max(max, delta.attachedMax);
+        }
+
+        write(instant, property, new Aggregate(count, sum, min, max));
+    }
+
+    /**
+     * Compute the aggregate of a property of a time instant from its own events and its children's rollups.
+     *
+     * @param instant  time instant node.
+     * @param property rolled up property.
+     * @return aggregate.
+     */
+    private Aggregate recompute(Node instant, String property) {
+        Aggregate result = Aggregate.EMPTY;
+
+        for (Relationship relationship : instant.getRelationships(INCOMING, type)) {
+            Double value = value(relationship.getStartNode(), property);
+            if (value != null) {
+                result = result.plus(Aggregate.of(value));
+            }
+        }
+
+        for (Node child : EventCounters.children(instant)) {
+            result = result.plus(read(child, property));
+        }
+
+        return result;
+    }
+
+    private void write(Node instant, String property, Aggregate aggregate) {
+        Set<Aggregation> aggregations = rollup.getAggregations(property);
+
+        instant.setProperty(key(property, COUNT), aggregate.getCount());
+        setOrRemove(instant, key(property, SUM), rollup.hasSum(property) ? aggregate.getSum() : null);
+        setOrRemove(instant, key(property, MIN), aggregations.contains(Aggregation.MIN) ? aggregate.getMin() : null);
+        setOrRemove(instant, key(property, MAX), aggregations.contains(Aggregation.MAX) ? aggregate.getMax() : null);
+    }
+
+    /**
+     * Recompute the rollups of a whole tree from scratch and mark the tree as maintained. Each year is recomputed in
+     * a separate transaction, unless called within an existing one. Meant for initialization and repairs, not for
+     * committing transactions.
+     *
+     * @param root   of the tree.
+     * @param rollup definition of the rolled up properties and aggregations.
+     * @param type   of relationships attaching the events whose values are rolled up.
+     */
+    public static void rebuild(Node root, Rollup rollup, RelationshipType type) {
+        GraphDatabaseService database = root.getGraphDatabase();
+        EventRollups rollups = new EventRollups(rollup, type);
+
+        List<Node> years = new ArrayList<>();
+        try (Transaction tx = database.beginTx()) {
+            unmark(root);
+            years.addAll(EventCounters.children(root));
+            tx.success();
+        }
+
+        for (Node year : years) {
+            try (Transaction tx = database.beginTx()) {
+                rollups.rebuildSubtree(year);
+                tx.success();
+            }
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            mark(root, rollup, type);
+            tx.success();
+        }
+    }
+
+    private static void mark(Node root, Rollup rollup, RelationshipType type) {
+        root.setProperty(ROLLUP_TYPE_PROPERTY, type.name());
+        root.setProperty(ROLLUP_DEFINITION_PROPERTY, rollup.getDefinition());
+    }
+
+    private Map<String, Aggregate> rebuildSubtree(Node instant) {
+        Map<String, Aggregate> result = new HashMap<>();
+        for (String property : rollup.getProperties()) {
+            result.put(property, Aggregate.EMPTY);
+        }
+
+        for (Relationship relationship : instant.getRelationships(INCOMING, type)) {
+            for (String property : rollup.getProperties()) {
+                Double value = value(relationship.getStartNode(), property);
+                if (value != null) {
+                    result.put(property, result.get(property).plus(Aggregate.of(value)));
+                }
+            }
+        }
+
+        for (Node child : EventCounters.children(instant)) {
+            for (Map.Entry<String, Aggregate> childAggregate : rebuildSubtree(child).entrySet()) {
+                result.put(childAggregate.getKey(), result.get(childAggregate.getKey()).plus(childAggregate.getValue()));
+            }
+        }
+
+        for (String key : instant.getPropertyKeys()) {
+            if (key.startsWith(ROLLUP_PROPERTY_PREFIX)) {
+                instant.removeProperty(key);
+            }
+        }
+
+        for (Map.Entry<String, Aggregate> aggregate : result.entrySet()) {
+            write(instant, aggregate.getKey(), aggregate.getValue());
+        }
+
+        return result;
+    }
+
+    /**
+     * Stop maintaining the rollups of a tree, so that they are no longer used for aggregating events. The rolled up
+     * values themselves are left in place.
+     *
+     * @param root of the tree.
+     */
+    public static void unmark(Node root) {
+        root.removeProperty(ROLLUP_TYPE_PROPERTY);
+        root.removeProperty(ROLLUP_DEFINITION_PROPERTY);
+    }
+
+    /**
+     * Are the rollups of a property maintained in the tree a time instant belongs to, for exactly the given types?
+     *
+     * @param instant  time instant node.
+     * @param types    of relationships attaching events.
+     * @param property name of the property.
+     * @return true iff the rollups can be used to aggregate the property of events of the given types.
+     */
+    static boolean isMaintained(Node instant, RelationshipType[] types, String property) {
+        if (types.length != 1) {
+            return false;
+        }
+
+        Node root = EventCounters.root(instant);
+        return types[0].name().equals(root.getProperty(ROLLUP_TYPE_PROPERTY, null))
+                && new Rollup((String) root.getProperty(ROLLUP_DEFINITION_PROPERTY, "")).getProperties().contains(property);
+    }
+
+    private static boolean isMaintained(Node root, Rollup rollup, RelationshipType type) {
+        return type.name().equals(root.getProperty(ROLLUP_TYPE_PROPERTY, null))
+                && rollup.getDefinition().equals(root.getProperty(ROLLUP_DEFINITION_PROPERTY, null));
+    }
+
+    /**
+     * Read the rolled up aggregate of a property of a time instant, covering the events attached to it and all its
+     * children. Only valid if {@link #isMaintained(Node, RelationshipType[], String)} for the instant and property.
+     *
+     * @param instant  time instant node.
+     * @param property name of the property.
+     * @return aggregate, with the aggregations that aren't rolled up being <code>null</code>.
+     */
+    static Aggregate read(Node instant, String property) {
+        return new Aggregate(getCount(instant, property),
+                (Double) instant.getProperty(key(property, SUM), null),
+                (Double) instant.getProperty(key(property, MIN), null),
+                (Double) instant.getProperty(key(property, MAX), null));
+    }
+
+    /**
+     * Get the numeric value of an event's property.
+     *
+     * @param event    event.
+     * @param property name of the property.
+     * @return value, <code>null</code> if the event doesn't have a numeric value of the property.
+     */
+    static Double value(PropertyContainer event, String property) {
+        Object value = event.getProperty(property, null);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return null;
+    }
+
+    private static long getCount(Node instant, String property) {
+        return ((Number) instant.getProperty(key(property, COUNT), 0L)).longValue();
+    }
+
+    private static void setOrRemove(Node instant, String key, Double value) {
+        if (value == null) {
+            instant.removeProperty(key);
+        } else {
+            instant.setProperty(key, value);
+        }
+    }
+
+    private static String key(String property, String aggregation) {
+        return ROLLUP_PROPERTY_PREFIX + property + "_" + aggregation;
+    }
+
+    /**
+     * Changes of the values of a single property of a single time instant.
+     */
+    private static class Delta {
+
+        private long count;
+        private double sum;
+        private Double attachedMin;
+        private Double attachedMax;
+        private Double detachedMin;
+        private Double detachedMax;
+
+        private void attached(double value) {
+            count++;
+            sum += value;
+            attachedMin = attachedMin == null ? value : Math.min(attachedMin, value);
+            attachedMax = attachedMax == null ? value : Math.max(attachedMax, value);
+        }
+
+        private void detached(double value) {
+            count--;
+            sum -= value;
+            detachedMin = detachedMin == null ? value : Math.min(detachedMin, value);
+            detachedMax = detachedMax == null ? value : Math.max(detachedMax, value);
+        }
+    }
+}
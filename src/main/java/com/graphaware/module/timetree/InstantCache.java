@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least-recently-used cache of time instant node IDs, keyed by the root of the tree, resolution, truncated
+ * time and time zone. The cache only holds IDs, so entries must be validated by the caller before use.
+ * <p/>
+ * This class is thread-safe.
+ */
+class InstantCache {
+
+    private final Map<Key, Long> cache;
+
+    /**
+     * Create a new cache.
+     *
+     * @param capacity maximum number of entries held by the cache.
+     */
+    InstantCache(final int capacity) {
+        cache = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the ID of the node representing the given time instant.
+     *
+     * @param rootId      ID of the root of the tree.
+     * @param timeInstant time instant.
+     * @return node ID, <code>null</code> if not cached.
+     */
+    synchronized Long get(long rootId, TimeInstant timeInstant) {
+        return cache.get(new Key(rootId, timeInstant));
+    }
+
+    /**
+     * Cache the ID of the node representing the given time instant.
+     *
+     * @param rootId      ID of the root of the tree.
+     * @param timeInstant time instant.
+     * @param nodeId      ID of the node representing the time instant.
+     */
+    synchronized void put(long rootId, TimeInstant timeInstant, long nodeId) {
+        cache.put(new Key(rootId, timeInstant), nodeId);
+    }
+
+    /**
+     * Remove all entries pointing to the given node.
+     *
+     * @param nodeId ID of the node.
+     */
+    synchronized void invalidate(long nodeId) {
+        Iterator<Long> iterator = cache.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == nodeId) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    synchronized void clear() {
+        cache.clear();
+    }
+
+    private static final class Key {
+
+        private final long rootId;
+        private final Resolution resolution;
+        private final long truncatedTime;
+        private final String timezone;
+
+        private Key(long rootId, TimeInstant timeInstant) {
+            this.rootId = rootId;
+            this.resolution = timeInstant.getResolution();
+            this.truncatedTime = timeInstant.truncate().getTime();
+            this.timezone = timeInstant.getTimezone().getID();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (rootId != key.rootId) return false;
+            if (truncatedTime != key.truncatedTime) return false;
+            if (resolution != key.resolution) return false;
+            if (!timezone.equals(key.timezone)) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (rootId ^ (rootId >>> 32));
+            result = 31 * result + resolution.hashCode();
+            result = 31 * result + (int) (truncatedTime ^ (truncatedTime >>> 32));
+            result = 31 * result + timezone.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.NEXT;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Iterator following {@link com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes#NEXT} relationships
+ * from a start node to an end node (both inclusive), either forwards or backwards in time.
+ */
+class InstantIterator implements Iterator<Node> {
+
+    private final long endNodeId;
+    private final Direction direction;
+    private Node next;
+
+    /**
+     * Create a new iterator moving forwards in time.
+     *
+     * @param startNode first node to return, <code>null</code> for an empty iterator.
+     * @param endNode   last node to return.
+     */
+    InstantIterator(Node startNode, Node endNode) {
+        this(startNode, endNode, OUTGOING);
+    }
+
+    /**
+     * Create a new iterator.
+     *
+     * @param startNode first node to return, <code>null</code> for an empty iterator.
+     * @param endNode   last node to return.
+     * @param direction of the NEXT relationships to follow, {@link Direction#OUTGOING} to move forwards in time,
+     *                  {@link Direction#INCOMING} to move backwards.
+     */
+    InstantIterator(Node startNode, Node endNode, Direction direction) {
+        this.endNodeId = endNode.getId();
+        this.direction = direction;
+        this.next = startNode;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Node next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+
+        Node result = next;
+
+        if (result.getId() == endNodeId) {
+            next = null;
+        } else {
+            Relationship nextRelationship = result.getSingleRelationship(NEXT, direction);
+            next = nextRelationship == null ? null : nextRelationship.getOtherNode(result);
+        }
+
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
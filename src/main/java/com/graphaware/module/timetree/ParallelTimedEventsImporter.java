@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.AttachResult;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimedEvent;
+import org.joda.time.DateTimeZone;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Importer of large numbers of historical events into a {@link TimeTree}, using multiple threads.
+ * <p/>
+ * The events are partitioned by the time instant they belong to at a configurable resolution (typically
+ * {@link Resolution#YEAR} or {@link Resolution#MONTH}), in the time zone of the tree. All the time instants the events
+ * are attached to are first created by a single thread, in ranges of consecutive instants. The partitions are then
+ * processed in parallel, each by a single thread in batches of a configurable size. No two partitions share a time
+ * instant the events are attached to and the tree isn't modified anymore, so attaching the events themselves doesn't
+ * make the threads contend.
+ * <p/>
+ * That doesn't hold when event counters or rollups are maintained, e.g. by a running
+ * {@link com.graphaware.module.timetree.module.TimeTreeModule}: every commit then also updates all the ancestors of the
+ * instants it attached events to, up to the year, which partitions finer than a year share. Batches failing on a
+ * deadlock are retried, but the commits are serialized on the shared ancestors, so fewer threads or a coarser
+ * partition resolution may then perform better.
+ * <p/>
+ * Progress and throughput of a running import can be read from any thread. An instance must only run one import at a
+ * time.
+ */
+public class ParallelTimedEventsImporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelTimedEventsImporter.class);
+
+    private static final int MAX_BATCH_ATTEMPTS = 10;
+
+    private final GraphDatabaseService database;
+    private final TimeTree timeTree;
+    private final TimedEvents timedEvents;
+    private final Resolution partitionResolution;
+    private final DateTimeZone timeZone;
+    private final int threads;
+    private final int batchSize;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong attached = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicInteger totalPartitions = new AtomicInteger();
+    private final AtomicInteger completedPartitions = new AtomicInteger();
+    private volatile long startTime;
+    private volatile long endTime;
+
+    /**
+     * Create a new importer for a tree in UTC.
+     *
+     * @param database            to import into.
+     * @param timeTree            to attach the events to.
+     * @param partitionResolution resolution at which the events are partitioned, e.g. {@link Resolution#YEAR} or
+     *                            {@link Resolution#MONTH}.
+     * @param threads             number of threads attaching events in parallel.
+     * @param batchSize           number of events attached in a single transaction.
+     */
+    public ParallelTimedEventsImporter(GraphDatabaseService database, TimeTree timeTree, Resolution partitionResolution, int threads, int batchSize) {
+        this(database, timeTree, DateTimeZone.UTC, partitionResolution, threads, batchSize);
+    }
+
+    /**
+     * Create a new importer.
+     *
+     * @param database            to import into.
+     * @param timeTree            to attach the events to.
+     * @param timeZone            of the tree. Time instants of events in other time zones are converted to it, so that
+     *                            the partitions match the instants the events are attached to.
+     * @param partitionResolution resolution at which the events are partitioned, e.g. {@link Resolution#YEAR} or
+     *                            {@link Resolution#MONTH}.
+     * @param threads             number of threads attaching events in parallel.
+     * @param batchSize           number of events attached in a single transaction.
+     */
+    public ParallelTimedEventsImporter(GraphDatabaseService database, TimeTree timeTree, DateTimeZone timeZone, Resolution partitionResolution, int threads, int batchSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+        }
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, was " + batchSize);
+        }
+
+        this.database = database;
+        this.timeTree = timeTree;
+        this.timedEvents = new TimeTreeBackedEvents(timeTree);
+        this.partitionResolution = partitionResolution;
+        this.timeZone = timeZone;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Import events, i.e. attach them to the time tree. Blocks until all events have been imported. Must not be called
+     * within a transaction, since the work is committed in batches by multiple threads. Events are attached to the
+     * instants their time instants represent in the time zone of the tree.
+     *
+     * @param events to import.
+     * @return numbers of attached events and events skipped because they were already attached.
+     * @throws IllegalStateException in case the import fails or is interrupted. Batches committed before the failure
+     *                               remain committed.
+     */
+    public AttachResult importEvents(Collection<TimedEvent> events) {
+        reset(events.size());
+
+        SortedMap<Long, List<TimedEvent>> partitions = partition(events);
+        totalPartitions.set(partitions.size());
+
+        LOG.info("Importing " + events.size() + " events in " + partitions.size() + " partitions using " + threads + " threads");
+
+        createInstants(partitions.values());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final List<TimedEvent> partition : partitions.values()) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        importPartition(partition);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            LOG.error("Import of events failed", e.getCause());
+            throw new IllegalStateException("Import of events failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Import of events was interrupted");
+            throw new IllegalStateException("Import of events was interrupted", e);
+        } finally {
+            executor.shutdownNow();
+            endTime = System.currentTimeMillis();
+        }
+
+        LOG.info("Imported " + processed.get() + " events in " + (endTime - startTime) + " ms (" + getThroughput() + " events/s)");
+
+        return new AttachResult(attached.get(), skipped.get());
+    }
+
+    private void reset(int numberOfEvents) {
+        total.set(numberOfEvents);
+        processed.set(0);
+        attached.set(0);
+        skipped.set(0);
+        totalPartitions.set(0);
+        completedPartitions.set(0);
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+    }
+
+    /**
+     * Partition events by the time instant they belong to at the partition resolution, or at their own resolution if it
+     * is coarser, so that no two partitions share a time instant. Time instants are converted to the time zone of the
+     * tree first, so that events belonging to the same instant of the tree end up in the same partition. Each partition
+     * is sorted by time.
+     *
+     * @param events to partition.
+     * @return partitions keyed by their truncated time, in chronological order.
+     */
+    private SortedMap<Long, List<TimedEvent>> partition(Collection<TimedEvent> events) {
+        SortedMap<Long, List<TimedEvent>> partitions = new TreeMap<>();
+
+        for (TimedEvent original : events) {
+            TimedEvent event = inTreeTimeZone(original);
+            TimeInstant timeInstant = event.getTimeInstant();
+            Resolution resolution = timeInstant.getResolution().compareTo(partitionResolution) < 0 ? timeInstant.getResolution() : partitionResolution;
+            long key = timeInstant.with(resolution).truncate().getTime();
+
+            List<TimedEvent> partition = partitions.get(key);
+            if (partition == null) {
+                partition = new ArrayList<>();
+                partitions.put(key, partition);
+            }
+            partition.add(event);
+        }
+
+        for (List<TimedEvent> partition : partitions.values()) {
+            Collections.sort(partition, new Comparator<TimedEvent>() {
+                @Override
+                public int compare(TimedEvent e1, TimedEvent e2) {
+                    return Long.compare(e1.getTimeInstant().getTime(), e2.getTimeInstant().getTime());
+                }
+            });
+        }
+
+        return partitions;
+    }
+
+    private TimedEvent inTreeTimeZone(TimedEvent event) {
+        if (timeZone.equals(event.getTimeInstant().getTimezone())) {
+            return event;
+        }
+
+        return new TimedEvent(event.getNode(), event.getRelationshipType(), event.getTimeInstant().with(timeZone));
+    }
+
+    /**
+     * Create all the time instants the events will be attached to, in chronological order, using a single thread.
+     * Consecutive instants of each partition are created as a range, walking the tree once per range rather than once
+     * per instant. The work is committed about every batch size instants.
+     *
+     * @param partitions of events, each sorted by time.
+     */
+    private void createInstants(Collection<List<TimedEvent>> partitions) {
+        long created = 0;
+        long uncommitted = 0;
+        Transaction tx = database.beginTx();
+        try {
+            for (List<TimedEvent> partition : partitions) {
+                TimeInstant rangeStart = null;
+                TimeInstant rangeEnd = null;
+                int rangeSize = 0;
+
+                for (TimedEvent event : partition) {
+                    TimeInstant timeInstant = event.getTimeInstant().truncate();
+
+                    if (rangeEnd != null && rangeEnd.compatibleWith(timeInstant)) {
+                        if (rangeEnd.getTime() == timeInstant.getTime()) {
+                            continue;
+                        }
+
+                        if (rangeSize < batchSize && rangeEnd.next().getTime() == timeInstant.getTime()) {
+                            rangeEnd = timeInstant;
+                            rangeSize++;
+                            continue;
+                        }
+                    }
+
+                    if (rangeStart != null) {
+                        uncommitted += createInstants(rangeStart, rangeEnd);
+                    }
+
+                    if (uncommitted >= batchSize) {
+                        created += uncommitted;
+                        uncommitted = 0;
+                        tx.success();
+                        tx.close();
+                        tx = database.beginTx();
+                    }
+
+                    rangeStart = timeInstant;
+                    rangeEnd = timeInstant;
+                    rangeSize = 1;
+                }
+
+                if (rangeStart != null) {
+                    uncommitted += createInstants(rangeStart, rangeEnd);
+                }
+            }
+
+            tx.success();
+        } finally {
+            tx.close();
+        }
+
+        created += uncommitted;
+
+        LOG.info("Created or found " + created + " time instants");
+    }
+
+    private long createInstants(TimeInstant startTime, TimeInstant endTime) {
+        long count = 0;
+
+        Iterator<Node> instants = timeTree.iterateOrCreateInstants(startTime, endTime, batchSize);
+        while (instants.hasNext()) {
+            instants.next();
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Attach the events of a single partition in batches.
+     *
+     * @param partition events, sorted by time.
+     */
+    private void importPartition(List<TimedEvent> partition) {
+        for (int from = 0; from < partition.size(); from += batchSize) {
+            List<TimedEvent> batch = partition.subList(from, Math.min(from + batchSize, partition.size()));
+
+            AttachResult result = importBatch(batch);
+
+            attached.addAndGet(result.getAttached());
+            skipped.addAndGet(result.getSkipped());
+            processed.addAndGet(batch.size());
+        }
+
+        completedPartitions.incrementAndGet();
+    }
+
+    private AttachResult importBatch(List<TimedEvent> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return timedEvents.attachEvents(batch, batchSize);
+            } catch (DeadlockDetectedException e) {
+                if (attempt >= MAX_BATCH_ATTEMPTS) {
+                    throw e;
+                }
+                LOG.warn("Deadlock detected while attaching a batch of events, retrying (attempt " + attempt + ")");
+            }
+        }
+    }
+
+    /**
+     * @return total number of events in the current (or last) import.
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return number of events processed so far, i.e. attached or skipped.
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return number of events attached so far.
+     */
+    public long getAttached() {
+        return attached.get();
+    }
+
+    /**
+     * @return number of events skipped so far, because they were already attached.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return total number of partitions in the current (or last) import.
+     */
+    public int getTotalPartitions() {
+        return totalPartitions.get();
+    }
+
+    /**
+     * @return number of partitions fully processed so far.
+     */
+    public int getCompletedPartitions() {
+        return completedPartitions.get();
+    }
+
+    /**
+     * @return fraction of events processed so far, between 0 and 1.
+     */
+    public double getProgress() {
+        long totalEvents = total.get();
+        return totalEvents == 0 ? 1.0 : (double) processed.get() / totalEvents;
+    }
+
+    /**
+     * @return average number of events processed per second in the current (or last) import.
+     */
+    public double getThroughput() {
+        if (startTime == 0) {
+            return 0;
+        }
+
+        long elapsed = (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+        return elapsed == 0 ? 0 : processed.get() * 1000.0 / elapsed;
+    }
+}
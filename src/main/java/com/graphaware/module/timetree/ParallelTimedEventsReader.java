@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import org.joda.time.DateTime;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static com.graphaware.module.timetree.domain.ValidationUtils.validateRange;
+
+/**
+ * Reader of events attached to large ranges of a {@link TimeTree}, using multiple threads.
+ * <p/>
+ * The range is split at year boundaries and each year at month boundaries (as long as the range's resolution is fine
+ * enough), and the resulting sub-ranges are traversed concurrently by a fork/join pool, each in its own read
+ * transaction. The results are either merged in chronological order, i.e. the same order
+ * {@link TimedEvents#getEvents(TimeInstant, TimeInstant, Set)} returns them in, or collected as the sub-ranges complete
+ * when the caller doesn't need them ordered.
+ * <p/>
+ * Since the work happens in separate transactions, the events are read from committed data only and the returned
+ * nodes must be used within a transaction.
+ */
+public class ParallelTimedEventsReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelTimedEventsReader.class);
+
+    private static final Resolution[] BOUNDARIES = {Resolution.YEAR, Resolution.MONTH};
+
+    private final GraphDatabaseService database;
+    private final TimedEvents timedEvents;
+    private final int threads;
+
+    /**
+     * Create a new reader.
+     *
+     * @param database to read from.
+     * @param timeTree to read the events from.
+     * @param threads  number of threads traversing the tree in parallel.
+     */
+    public ParallelTimedEventsReader(GraphDatabaseService database, TimeTree timeTree, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+        }
+
+        this.database = database;
+        this.timedEvents = new TimeTreeBackedEvents(timeTree);
+        this.threads = threads;
+    }
+
+    /**
+     * Get events attached (via an incoming relationship of one of the specified types) to all time instants in the
+     * specified range (inclusive) and all their children. Blocks until all sub-ranges have been traversed.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive).
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, <code>null</code> for all.
+     * @param ordered           <code>true</code> iff the events must be returned in chronological order. Otherwise,
+     *                          the events of each sub-range are returned in order, but the sub-ranges themselves are in
+     *                          no particular order, which saves merging the results.
+     * @return events.
+     * @throws IllegalStateException in case the traversal fails or is interrupted.
+     */
+    public List<Event> getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, boolean ordered) {
+        validateRange(startTime, endTime);
+
+        Queue<Event> unordered = ordered ? null : new ConcurrentLinkedQueue<Event>();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Event> result = pool.invoke(new RangeTask(startTime.truncate(), endTime.truncate(), relationshipTypes, unordered));
+            return ordered ? result : new ArrayList<>(unordered);
+        } catch (RuntimeException e) {
+            LOG.error("Parallel traversal of events failed", e);
+            throw new IllegalStateException("Parallel traversal of events failed", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Split a range at the boundaries of time instants of a coarser (or the same) resolution.
+     *
+     * @param startTime start of the range (inclusive), truncated.
+     * @param endTime   end of the range (inclusive), truncated.
+     * @param boundary  resolution of the time instants at whose boundaries to split, not finer than the range's.
+     * @return sub-ranges as pairs of start and end, in chronological order.
+     */
+    static List<TimeInstant[]> split(TimeInstant startTime, TimeInstant endTime, Resolution boundary) {
+        List<TimeInstant[]> result = new ArrayList<>();
+
+        TimeInstant current = startTime;
+        while (current.getTime() <= endTime.getTime()) {
+            long next = new DateTime(current.with(boundary).truncate().getTime(), current.getTimezone())
+                    .property(boundary.getDateTimeFieldType()).addToCopy(1).getMillis();
+
+            TimeInstant last = endTime.getTime() < next ? endTime : instant(next - 1, startTime);
+            result.add(new TimeInstant[]{current, last});
+
+            current = instant(next, startTime);
+        }
+
+        return result;
+    }
+
+    private static TimeInstant instant(long time, TimeInstant template) {
+        return TimeInstant.instant(time).with(template.getTimezone()).with(template.getResolution()).truncate();
+    }
+
+    /**
+     * Task traversing a range, either by forking tasks for its sub-ranges or directly.
+     */
+    private class RangeTask extends RecursiveTask<List<Event>> {
+
+        private final TimeInstant startTime;
+        private final TimeInstant endTime;
+        private final Set<RelationshipType> relationshipTypes;
+        private final Queue<Event> unordered;
+
+        private RangeTask(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, Queue<Event> unordered) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.relationshipTypes = relationshipTypes;
+            this.unordered = unordered;
+        }
+
+        @Override
+        protected List<Event> compute() {
+            for (Resolution boundary : BOUNDARIES) {
+                if (boundary.compareTo(startTime.getResolution()) > 0) {
+                    break;
+                }
+
+                List<TimeInstant[]> subRanges = split(startTime, endTime, boundary);
+                if (subRanges.size() > 1) {
+                    List<RangeTask> tasks = new ArrayList<>();
+                    for (TimeInstant[] subRange : subRanges) {
+                        tasks.add(new RangeTask(subRange[0], subRange[1], relationshipTypes, unordered));
+                    }
+
+                    invokeAll(tasks);
+
+                    List<Event> result = new ArrayList<>();
+                    for (RangeTask task : tasks) {
+                        result.addAll(task.join());
+                    }
+                    return result;
+                }
+            }
+
+            List<Event> events;
+            try (Transaction tx = database.beginTx()) {
+                events = timedEvents.getEvents(startTime, endTime, relationshipTypes);
+                tx.success();
+            }
+
+            if (unordered != null) {
+                unordered.addAll(events);
+                return Collections.emptyList();
+            }
+
+            return events;
+        }
+    }
+}
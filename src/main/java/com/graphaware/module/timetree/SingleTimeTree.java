@@ -18,18 +18,19 @@ package com.graphaware.module.timetree;
 
 import com.graphaware.common.util.IterableUtils;
 import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.SortOrder;
 import com.graphaware.module.timetree.domain.TimeInstant;
 import com.graphaware.module.timetree.domain.TimeTreeLabels;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.graphdb.event.TransactionEventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.locks.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.graphaware.common.util.PropertyContainerUtils.getInt;
 import static com.graphaware.module.timetree.SingleTimeTree.ChildNotFoundPolicy.*;
@@ -37,6 +38,7 @@ import static com.graphaware.module.timetree.domain.Resolution.YEAR;
 import static com.graphaware.module.timetree.domain.Resolution.findForNode;
 import static com.graphaware.module.timetree.domain.TimeTreeLabels.TimeTreeRoot;
 import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
+import static com.graphaware.module.timetree.domain.ValidationUtils.validateRange;
 import static org.neo4j.graphdb.Direction.INCOMING;
 import static org.neo4j.graphdb.Direction.OUTGOING;
 
@@ -49,18 +51,55 @@ public class SingleTimeTree implements TimeTree {
 
     protected static final String VALUE_PROPERTY = "value";
 
+    private static final int INSTANT_CACHE_SIZE = 1000;
+    private static final int MAX_INSERT_ATTEMPTS = 100;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
     private final GraphDatabaseService database;
+    private final LockingMode lockingMode;
+    private final Resolution indexedResolution;
     private final ReentrantLock rootLock = new ReentrantLock();
+    private final InstantCache instantCache = new InstantCache(INSTANT_CACHE_SIZE);
+    private final ThreadLocal<Boolean> treeModified = new ThreadLocal<>();
+    private final TransactionEventHandler<Boolean> transactionEventHandler;
+    private volatile Long rootId;
 
     /**
-     * Constructor for time tree.
+     * Constructor for time tree, using {@link LockingMode#HIERARCHICAL} locking.
      *
      * @param database to talk to.
      */
     public SingleTimeTree(GraphDatabaseService database) {
+        this(database, LockingMode.HIERARCHICAL);
+    }
+
+    /**
+     * Constructor for time tree.
+     *
+     * @param database    to talk to.
+     * @param lockingMode how to lock the tree when creating instants.
+     */
+    public SingleTimeTree(GraphDatabaseService database, LockingMode lockingMode) {
+        this(database, lockingMode, null);
+    }
+
+    /**
+     * Constructor for time tree.
+     *
+     * @param database          to talk to.
+     * @param lockingMode       how to lock the tree when creating instants.
+     * @param indexedResolution resolution from which (inclusive, towards finer resolutions) children are looked up
+     *                          using an index stored on their parent rather than by walking the chain of siblings. Only
+     *                          worth it for wide levels, e.g. {@link Resolution#SECOND} or {@link Resolution#MILLISECOND}.
+     *                          <code>null</code> for no indexing, in which case no index is used for lookups (indexes
+     *                          built by other trees sharing the same root are still kept up to date).
+     */
+    public SingleTimeTree(GraphDatabaseService database, LockingMode lockingMode, Resolution indexedResolution) {
         this.database = database;
+        this.lockingMode = lockingMode;
+        this.indexedResolution = indexedResolution;
 
-        database.registerTransactionEventHandler(new TransactionEventHandler<Boolean>() {
+        this.transactionEventHandler = database.registerTransactionEventHandler(new TransactionEventHandler<Boolean>() {
             @Override
             public Boolean beforeCommit(TransactionData transactionData) throws Exception {
                 if (!rootLock.isLocked()) {
@@ -78,6 +117,8 @@ public class SingleTimeTree implements TimeTree {
 
             @Override
             public void afterCommit(TransactionData transactionData, Boolean rootCreated) {
+                treeModified.remove();
+
                 if (rootCreated) {
                     if (rootLock.isHeldByCurrentThread()) {
                         rootLock.unlock();
@@ -87,6 +128,8 @@ public class SingleTimeTree implements TimeTree {
 
             @Override
             public void afterRollback(TransactionData transactionData, Boolean rootCreated) {
+                treeModified.remove();
+
                 if (rootCreated) {
                     if (rootLock.isHeldByCurrentThread()) {
                         rootLock.unlock();
@@ -96,6 +139,15 @@ public class SingleTimeTree implements TimeTree {
         });
     }
 
+    /**
+     * Unregister this tree's handler of the database's transaction events. Must be called when the tree is no longer
+     * going to be used, if many instances are created over time (e.g. {@link CustomRootTimeTree}s), since the handlers
+     * would otherwise accumulate. The tree must not be used afterwards.
+     */
+    public void dispose() {
+        database.unregisterTransactionEventHandler(transactionEventHandler);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -127,16 +179,53 @@ public class SingleTimeTree implements TimeTree {
     public List<Node> getInstants(TimeInstant startTime, TimeInstant endTime) {
         List<Node> result = new LinkedList<>();
 
-        for (TimeInstant instant : TimeInstant.getInstants(startTime, endTime)) {
-            Node toAdd = getInstant(instant);
-            if (toAdd != null) {
-                result.add(toAdd);
+        try (Transaction tx = database.beginTx()) {
+            Iterator<Node> instants = iterateInstants(startTime, endTime);
+            while (instants.hasNext()) {
+                result.add(instants.next());
             }
+
+            tx.success();
         }
 
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Node> iterateInstants(TimeInstant startTime, TimeInstant endTime) {
+        return iterateInstants(startTime, endTime, SortOrder.ASCENDING);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Node> iterateInstants(TimeInstant startTime, TimeInstant endTime, SortOrder order) {
+        validateRange(startTime, endTime);
+
+        Node startNode = getInstantAtOrAfter(startTime);
+        Node endNode = getInstantAtOrBefore(endTime);
+
+        if (startNode == null || endNode == null) {
+            return Collections.emptyIterator();
+        }
+
+        Relationship afterEnd = endNode.getSingleRelationship(NEXT, OUTGOING);
+        if (afterEnd != null && afterEnd.getEndNode().getId() == startNode.getId()) {
+            //no instants in the range, the start node is the first one after it, the end node the last one before it
+            return Collections.emptyIterator();
+        }
+
+        if (order == SortOrder.DESCENDING) {
+            return new InstantIterator(endNode, startNode, INCOMING);
+        }
+
+        return new InstantIterator(startNode, endNode);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -148,8 +237,12 @@ public class SingleTimeTree implements TimeTree {
             DateTime dateTime = new DateTime(timeInstant.getTime(), timeInstant.getTimezone());
 
             Node timeRoot = getTimeRoot();
-            tx.acquireWriteLock(timeRoot);
-            instant = getOrCreateInstant(timeRoot, dateTime, timeInstant.getResolution());
+
+            instant = getCachedInstant(timeRoot, timeInstant, dateTime);
+            if (instant == null) {
+                instant = getOrCreateInstant(tx, timeRoot, dateTime, timeInstant.getResolution());
+                cacheInstant(timeRoot, timeInstant, instant);
+            }
 
             tx.success();
         }
@@ -162,26 +255,153 @@ public class SingleTimeTree implements TimeTree {
      */
     @Override
     public List<Node> getOrCreateInstants(TimeInstant startTime, TimeInstant endTime) {
-        List<Node> result = new LinkedList<>();
+        List<Node> result = new ArrayList<>();
 
-        for (TimeInstant instant : TimeInstant.getInstants(startTime, endTime)) {
-            result.add(getOrCreateInstant(instant));
+        Iterator<Node> instants = iterateOrCreateInstants(startTime, endTime, DEFAULT_BATCH_SIZE);
+        while (instants.hasNext()) {
+            result.add(instants.next());
         }
 
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Node> iterateOrCreateInstants(TimeInstant startTime, TimeInstant endTime, int batchSize) {
+        validateRange(startTime, endTime);
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, was " + batchSize);
+        }
+
+        return new CreatingInstantIterator(startTime, endTime, batchSize);
+    }
+
+    /**
+     * Iterator over a range of time instants, finding or creating them a batch at a time, each batch in a separate
+     * transaction (unless iterated within an existing one). Within a batch, the path from the root to the previous
+     * instant is kept, so that only the levels that changed are revisited and each node is found or created right
+     * after its previous sibling. The path is resolved from the root again at the start of every batch, as the tree
+     * could have been modified by others in the meantime.
+     */
+    private class CreatingInstantIterator implements Iterator<Node> {
+
+        private final TimeInstant endTime;
+        private final int batchSize;
+        private final Queue<Node> batch;
+        private TimeInstant next;
+
+        private CreatingInstantIterator(TimeInstant startTime, TimeInstant endTime, int batchSize) {
+            this.endTime = endTime;
+            this.batchSize = batchSize;
+            this.batch = new ArrayDeque<>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+            this.next = startTime;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (batch.isEmpty() && next != null) {
+                createBatch();
+            }
+
+            return !batch.isEmpty();
+        }
+
+        @Override
+        public Node next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return batch.poll();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void createBatch() {
+            try (Transaction tx = database.beginTx()) {
+                Node timeRoot = getTimeRoot();
+
+                if (LockingMode.ROOT.equals(lockingMode)) {
+                    tx.acquireWriteLock(timeRoot);
+                }
+
+                int targetLevel = next.getResolution().ordinal();
+                Node[] path = new Node[targetLevel + 1];
+                DateTime previous = null;
+
+                while (next != null && batch.size() < batchSize) {
+                    DateTime dateTime = new DateTime(next.getTime(), next.getTimezone());
+
+                    int firstChangedLevel = previous == null ? 0 : firstChangedLevel(previous, dateTime, targetLevel);
+                    for (int level = firstChangedLevel; level <= targetLevel; level++) {
+                        Node parent = level == 0 ? timeRoot : path[level - 1];
+                        int value = dateTime.get(Resolution.values()[level].getDateTimeFieldType());
+
+                        if (level == firstChangedLevel && previous != null) {
+                            //the same parent as for the previous instant, path[level] is the previous sibling
+                            path[level] = findOrCreateChildAfter(tx, parent, path[level], value);
+                        } else {
+                            path[level] = findOrCreateChild(tx, parent, value);
+                        }
+                    }
+
+                    batch.add(path[targetLevel]);
+                    previous = dateTime;
+
+                    next = next.next();
+                    if (next.isAfter(endTime)) {
+                        next = null;
+                    }
+                }
+
+                tx.success();
+            }
+        }
+    }
+
+    /**
+     * Find the highest level of the tree at which two date times differ.
+     *
+     * @param previous    previous date time.
+     * @param current     current date time.
+     * @param targetLevel lowest level to compare (ordinal of the target {@link Resolution}).
+     * @return the highest level at which the date times differ, <code>targetLevel + 1</code> if they don't.
+     */
+    private int firstChangedLevel(DateTime previous, DateTime current, int targetLevel) {
+        for (int level = 0; level <= targetLevel; level++) {
+            DateTimeFieldType fieldType = Resolution.values()[level].getDateTimeFieldType();
+            if (previous.get(fieldType) != current.get(fieldType)) {
+                return level;
+            }
+        }
+
+        return targetLevel + 1;
+    }
+
     /**
      * Get the root of the time tree. Create it if it does not exist.
      *
      * @return root of the time tree.
      */
     protected Node getTimeRoot() {
-        Node timeTreeRoot = IterableUtils.getSingleOrNull(database.findNodes(TimeTreeRoot));
+        Node timeTreeRoot = getCachedTimeRoot();
+
+        if (timeTreeRoot != null) {
+            return timeTreeRoot;
+        }
+
+        timeTreeRoot = IterableUtils.getSingleOrNull(database.findNodes(TimeTreeRoot));
 
         if (timeTreeRoot != null) {
             try {
                 timeTreeRoot.getDegree();
+                rootId = timeTreeRoot.getId();
                 return timeTreeRoot;
             } catch (NotFoundException e) {
                 //ok
@@ -194,15 +414,43 @@ public class SingleTimeTree implements TimeTree {
 
         if (timeTreeRoot != null) {
             rootLock.unlock();
+            rootId = timeTreeRoot.getId();
             return timeTreeRoot;
         }
 
         LOG.info("Creating time tree root");
         timeTreeRoot = database.createNode(TimeTreeRoot);
+        rootId = timeTreeRoot.getId();
 
         return timeTreeRoot;
     }
 
+    /**
+     * Get the root of the time tree using its cached ID. The cached root is validated before it is returned, so that a
+     * root deleted in the meantime (by {@link #removeAll()}, another instance, or a rolled back transaction) is never
+     * handed out.
+     *
+     * @return root of the time tree, <code>null</code> if there is no valid cached root.
+     */
+    private Node getCachedTimeRoot() {
+        Long cachedRootId = rootId;
+        if (cachedRootId == null) {
+            return null;
+        }
+
+        try {
+            Node cached = database.getNodeById(cachedRootId);
+            if (cached.hasLabel(TimeTreeRoot)) {
+                return cached;
+            }
+        } catch (NotFoundException e) {
+            //deleted in the meantime
+        }
+
+        rootId = null;
+        return null;
+    }
+
     private Node getInstant(TimeInstant timeInstant, ChildNotFoundPolicy childNotFoundPolicy) {
         Node instant;
 
@@ -210,219 +458,778 @@ public class SingleTimeTree implements TimeTree {
             DateTime dateTime = new DateTime(timeInstant.getTime(), timeInstant.getTimezone());
 
             Node timeRoot = getTimeRoot();
-            tx.acquireWriteLock(timeRoot);
 
-            instant = getInstant(timeRoot, dateTime, timeInstant.getResolution(), childNotFoundPolicy);
+            instant = getCachedInstant(timeRoot, timeInstant, dateTime);
+            if (instant == null) {
+                instant = getInstant(timeRoot, dateTime, timeInstant.getResolution(), childNotFoundPolicy);
+
+                if (RETURN_NULL.equals(childNotFoundPolicy)) {
+                    cacheInstant(timeRoot, timeInstant, instant);
+                }
+            }
 
             tx.success();
         }
 
-        return instant;
+        return instant;
+    }
+
+    /**
+     * Get a node representing a specific time instant from the instant cache. The cached node is validated before it
+     * is returned, so that nodes deleted in the meantime are never handed out. Since node IDs are reused, the whole
+     * path from the node up to the root is validated, i.e. the label and value of the node and each of its ancestors,
+     * and the ID of the root.
+     *
+     * @param timeRoot    root of the time tree.
+     * @param timeInstant time instant.
+     * @param dateTime    time instant as date time in the instant's time zone.
+     * @return cached node, <code>null</code> if there is no valid cached node for the time instant.
+     */
+    private Node getCachedInstant(Node timeRoot, TimeInstant timeInstant, DateTime dateTime) {
+        Long nodeId = instantCache.get(timeRoot.getId(), timeInstant);
+        if (nodeId == null) {
+            return null;
+        }
+
+        try {
+            Node cached = database.getNodeById(nodeId);
+            if (isOnPath(cached, timeRoot, timeInstant.getResolution(), dateTime)) {
+                return cached;
+            }
+        } catch (NotFoundException e) {
+            //deleted in the meantime
+        }
+
+        instantCache.invalidate(nodeId);
+        return null;
+    }
+
+    /**
+     * Check that a node represents the given date time at the given resolution in the tree with the given root.
+     *
+     * @param node       to check.
+     * @param timeRoot   root of the time tree.
+     * @param resolution of the node.
+     * @param dateTime   date time in the time zone of the tree's time instants.
+     * @return true iff the node and all its ancestors have the expected labels and values and the node hangs off the root.
+     */
+    private boolean isOnPath(Node node, Node timeRoot, Resolution resolution, DateTime dateTime) {
+        Node current = node;
+        for (int ordinal = resolution.ordinal(); ordinal >= 0; ordinal--) {
+            Resolution currentResolution = Resolution.values()[ordinal];
+            if (!current.hasLabel(currentResolution.getLabel()) || getInt(current, VALUE_PROPERTY) != dateTime.get(currentResolution.getDateTimeFieldType())) {
+                return false;
+            }
+
+            Relationship parentRelationship = current.getSingleRelationship(CHILD, INCOMING);
+            if (parentRelationship == null) {
+                return false;
+            }
+            current = parentRelationship.getStartNode();
+        }
+
+        return current.getId() == timeRoot.getId();
+    }
+
+    /**
+     * Put a node representing a specific time instant to the instant cache. Nothing is cached while the current
+     * thread's transaction has modified the tree, because the node might not survive a rollback.
+     *
+     * @param timeRoot    root of the time tree.
+     * @param timeInstant time instant.
+     * @param instant     node representing the time instant, can be <code>null</code>.
+     */
+    private void cacheInstant(Node timeRoot, TimeInstant timeInstant, Node instant) {
+        if (instant == null || Boolean.TRUE.equals(treeModified.get())) {
+            return;
+        }
+
+        instantCache.put(timeRoot.getId(), timeInstant, instant.getId());
+    }
+
+    /**
+     * Record that the current thread's transaction has modified the tree. The flag is cleared when the transaction
+     * finishes.
+     */
+    private void markTreeModified() {
+        treeModified.set(true);
+    }
+
+    private Node getInstant(Node parent, DateTime dateTime, Resolution targetResolution, ChildNotFoundPolicy childNotFoundPolicy) {
+        Resolution currentResolution = currentResolution(parent);
+
+        if (targetResolution.equals(currentResolution)) {
+            return parent;
+        }
+
+        Resolution newCurrentResolution = childResolution(parent);
+        int value = dateTime.get(newCurrentResolution.getDateTimeFieldType());
+
+        Node child = findChild(parent, value, RETURN_NULL);
+
+        if (child != null) {
+            //recursion
+            Node instant = getInstant(child, dateTime, targetResolution, childNotFoundPolicy);
+            if (instant != null || RETURN_NULL.equals(childNotFoundPolicy)) {
+                return instant;
+            }
+
+            //nothing at the target resolution on the same side of the time instant within the child, try its siblings
+            return closestDescendant(sibling(parent, child, childNotFoundPolicy), targetResolution, childNotFoundPolicy);
+        }
+
+        if (RETURN_NULL.equals(childNotFoundPolicy)) {
+            return null;
+        }
+
+        return closestDescendant(findChild(parent, value, childNotFoundPolicy), targetResolution, childNotFoundPolicy);
+    }
+
+    /**
+     * Find the earliest (for {@link ChildNotFoundPolicy#RETURN_NEXT}) or latest (for
+     * {@link ChildNotFoundPolicy#RETURN_PREVIOUS}) node at the target resolution below a node or below its following
+     * (preceding) siblings. Siblings without any descendants at the target resolution, which can exist in trees with
+     * mixed resolutions, are skipped.
+     *
+     * @param node                first node to look under, can be <code>null</code>.
+     * @param targetResolution    resolution of the node to find.
+     * @param childNotFoundPolicy direction of the search.
+     * @return node at the target resolution, <code>null</code> if there is none.
+     */
+    private Node closestDescendant(Node node, Resolution targetResolution, ChildNotFoundPolicy childNotFoundPolicy) {
+        Node parent = node == null ? null : parent(node);
+
+        for (Node current = node; current != null; current = sibling(parent, current, childNotFoundPolicy)) {
+            if (findForNode(current).equals(targetResolution)) {
+                return current;
+            }
+
+            Relationship edge = current.getSingleRelationship(RETURN_NEXT.equals(childNotFoundPolicy) ? FIRST : LAST, OUTGOING);
+            if (edge != null) {
+                Node descendant = closestDescendant(edge.getEndNode(), targetResolution, childNotFoundPolicy);
+                if (descendant != null) {
+                    return descendant;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the next (for {@link ChildNotFoundPolicy#RETURN_NEXT}) or previous (for
+     * {@link ChildNotFoundPolicy#RETURN_PREVIOUS}) sibling of a child with the same parent.
+     *
+     * @param parent              of the child.
+     * @param child               whose sibling to find.
+     * @param childNotFoundPolicy direction.
+     * @return sibling, <code>null</code> if the child is the last (first) child of the parent.
+     */
+    private Node sibling(Node parent, Node child, ChildNotFoundPolicy childNotFoundPolicy) {
+        if (RETURN_NEXT.equals(childNotFoundPolicy)) {
+            return nextSibling(parent, child);
+        }
+
+        Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
+        if (firstRelationship == null || firstRelationship.getEndNode().getId() == child.getId()) {
+            return null;
+        }
+
+        Relationship previousRelationship = child.getSingleRelationship(NEXT, INCOMING);
+        return previousRelationship == null ? null : previousRelationship.getStartNode();
+    }
+
+    private Resolution currentResolution(Node parent) {
+        if (isRoot(parent)) {
+            return null;
+        }
+
+        return findForNode(parent);
+    }
+
+    private Resolution childResolution(Node parent) {
+        if (isRoot(parent)) {
+            return YEAR;
+        }
+
+        return currentResolution(parent).getChild();
+    }
+
+    enum ChildNotFoundPolicy {
+        RETURN_NULL, RETURN_PREVIOUS, RETURN_NEXT
+    }
+
+    /**
+     * The way the tree is locked when instants are created.
+     */
+    public enum LockingMode {
+
+        /**
+         * Write-lock the root of the tree, so that all transactions creating instants are serialized.
+         */
+        ROOT,
+
+        /**
+         * Look the instant up without locks first. If it is missing, write-lock only its deepest existing ancestor,
+         * so that instants in different time buckets can be created in parallel. Parents are locked before their
+         * children and nodes on the same level in the order of their IDs, so creating a single instant never
+         * deadlocks. A transaction creating several instants can still deadlock with another one creating instants
+         * in a different order, in which case Neo4j rolls it back with a
+         * {@link org.neo4j.kernel.DeadlockDetectedException} and it has to be retried. Use {@link #ROOT} if that is
+         * not an option.
+         */
+        HIERARCHICAL
+    }
+
+    /**
+     * Get a node representing a specific time instant. If one doesn't exist, it will be created as well as any missing
+     * nodes on the way down from the root, locking the tree according to the configured {@link LockingMode}.
+     *
+     * @param tx               current transaction.
+     * @param timeRoot         root of the time tree.
+     * @param dateTime         time instant.
+     * @param targetResolution target child resolution.
+     * @return node representing the time instant at the desired resolution level.
+     */
+    private Node getOrCreateInstant(Transaction tx, Node timeRoot, DateTime dateTime, Resolution targetResolution) {
+        if (LockingMode.ROOT.equals(lockingMode)) {
+            tx.acquireWriteLock(timeRoot);
+        }
+
+        return getOrCreateInstantBelow(tx, timeRoot, dateTime, targetResolution);
+    }
+
+    /**
+     * Get a node representing a specific time instant. If one doesn't exist, it will be created as well as any missing
+     * nodes on the way down from parent (recursively).
+     * <p/>
+     * The path is first followed without locks. Only the deepest existing ancestor of the first missing node is
+     * write-locked, its children re-checked, and the missing child created if still needed.
+     *
+     * @param tx               current transaction.
+     * @param parent           parent node on path to desired instant node.
+     * @param dateTime         time instant.
+     * @param targetResolution target child resolution. Recursion stops when at this level.
+     * @return node representing the time instant at the desired resolution level.
+     */
+    private Node getOrCreateInstantBelow(Transaction tx, Node parent, DateTime dateTime, Resolution targetResolution) {
+        Node ancestor = findDeepestExistingAncestor(parent, dateTime, targetResolution);
+
+        if (targetResolution.equals(currentResolution(ancestor))) {
+            return ancestor;
+        }
+
+        Node child = lockAndFindOrCreateChild(tx, ancestor, dateTime.get(childResolution(ancestor).getDateTimeFieldType()));
+
+        //recursion
+        return getOrCreateInstantBelow(tx, child, dateTime, targetResolution);
+    }
+
+    /**
+     * Follow the path to a time instant without taking any locks for as long as the nodes on the path exist.
+     *
+     * @param parent           node to start from.
+     * @param dateTime         time instant.
+     * @param targetResolution target resolution.
+     * @return node representing the time instant if it exists, its deepest existing ancestor otherwise.
+     */
+    private Node findDeepestExistingAncestor(Node parent, DateTime dateTime, Resolution targetResolution) {
+        Node current = parent;
+
+        while (!targetResolution.equals(currentResolution(current))) {
+            Node child = findChild(current, dateTime.get(childResolution(current).getDateTimeFieldType()), RETURN_NULL);
+            if (child == null) {
+                return current;
+            }
+            current = child;
+        }
+
+        return current;
+    }
+
+    /**
+     * Find a child node with value equal to the given value. If no such child exists, return a value according to the
+     * provided {@link ChildNotFoundPolicy}.
+     *
+     * @param parent              parent of the node to be found.
+     * @param value               value of the node to be found.
+     * @param childNotFoundPolicy what to do when child isn't found?
+     * @return child node, or a value specified by the given {@link ChildNotFoundPolicy}.
+     */
+    private Node findChild(Node parent, int value, ChildNotFoundPolicy childNotFoundPolicy) {
+        ChildIndex index = isIndexed(parent) ? ChildIndex.read(parent) : null;
+        if (index != null) {
+            try {
+                return findChild(parent, index, value, childNotFoundPolicy);
+            } catch (NotFoundException e) {
+                //index modified concurrently, fall back to walking the siblings
+            }
+        }
+
+        Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
+        if (firstRelationship == null) {
+            return null;
+        }
+
+        Node firstChild = firstRelationship.getEndNode();
+        Node lastChild = parent.getSingleRelationship(LAST, OUTGOING).getEndNode();
+        int lastValue = getInt(lastChild, VALUE_PROPERTY);
+
+        if (value >= lastValue) {
+            return findChildAtOrAfterLast(lastChild, value, childNotFoundPolicy);
+        }
+
+        if (value - getInt(firstChild, VALUE_PROPERTY) > lastValue - value) {
+            return findChildFromLast(firstChild, lastChild, value, childNotFoundPolicy);
+        }
+
+        //the value is lower than the last child's, so the walk stops at the last child at the latest and never needs
+        //to check whether it has left the parent's children
+        Node existingChild = firstChild;
+        while (getInt(existingChild, VALUE_PROPERTY) < value) {
+            existingChild = existingChild.getSingleRelationship(NEXT, OUTGOING).getEndNode();
+        }
+
+        if (getInt(existingChild, VALUE_PROPERTY) == value) {
+            return existingChild;
+        }
+
+        //here we claim that getInt(existingChild, VALUE_PROPERTY) > value
+        switch (childNotFoundPolicy) {
+            case RETURN_NULL:
+                return null;
+            case RETURN_NEXT:
+                return existingChild;
+            case RETURN_PREVIOUS:
+                return existingChild.getSingleRelationship(NEXT, INCOMING) == null ? null : existingChild.getSingleRelationship(NEXT, INCOMING).getStartNode();
+            default:
+                throw new IllegalStateException("Unknown child not found policy: " + childNotFoundPolicy);
+        }
+    }
+
+    /**
+     * Find a child node with value greater than or equal to the value of the parent's last child.
+     *
+     * @param lastChild           last child of the parent.
+     * @param value               value of the node to be found, at least the value of the last child.
+     * @param childNotFoundPolicy what to do when child isn't found?
+     * @return child node, or a value specified by the given {@link ChildNotFoundPolicy}.
+     */
+    private Node findChildAtOrAfterLast(Node lastChild, int value, ChildNotFoundPolicy childNotFoundPolicy) {
+        if (getInt(lastChild, VALUE_PROPERTY) == value) {
+            return lastChild;
+        }
+
+        switch (childNotFoundPolicy) {
+            case RETURN_NULL:
+                return null;
+            case RETURN_NEXT:
+                Relationship nextRelationship = lastChild.getSingleRelationship(NEXT, OUTGOING);
+                return nextRelationship == null ? null : nextRelationship.getEndNode();
+            case RETURN_PREVIOUS:
+                return lastChild;
+            default:
+                throw new IllegalStateException("Unknown child not found policy: " + childNotFoundPolicy);
+        }
+    }
+
+    /**
+     * Find a child node with value equal to the given value by walking the siblings backwards, starting from the last
+     * child. If no such child exists, return a value according to the provided {@link ChildNotFoundPolicy}.
+     *
+     * @param firstChild          first child of the parent.
+     * @param lastChild           last child of the parent.
+     * @param value               value of the node to be found, lower than the value of the last child.
+     * @param childNotFoundPolicy what to do when child isn't found?
+     * @return child node, or a value specified by the given {@link ChildNotFoundPolicy}.
+     */
+    private Node findChildFromLast(Node firstChild, Node lastChild, int value, ChildNotFoundPolicy childNotFoundPolicy) {
+        Node existingChild = lastChild;
+        while (getInt(existingChild, VALUE_PROPERTY) > value && existingChild.getId() != firstChild.getId()) {
+            Relationship previousRelationship = existingChild.getSingleRelationship(NEXT, INCOMING);
+            if (previousRelationship == null) {
+                break;
+            }
+            existingChild = previousRelationship.getStartNode();
+        }
+
+        int existingValue = getInt(existingChild, VALUE_PROPERTY);
+        if (existingValue == value) {
+            return existingChild;
+        }
+
+        if (existingValue < value) {
+            //value falls between existingChild and its next sibling
+            switch (childNotFoundPolicy) {
+                case RETURN_NULL:
+                    return null;
+                case RETURN_NEXT:
+                    return existingChild.getSingleRelationship(NEXT, OUTGOING).getEndNode();
+                case RETURN_PREVIOUS:
+                    return existingChild;
+                default:
+                    throw new IllegalStateException("Unknown child not found policy: " + childNotFoundPolicy);
+            }
+        }
+
+        //here we claim that existingChild is the first child and getInt(existingChild, VALUE_PROPERTY) > value
+        switch (childNotFoundPolicy) {
+            case RETURN_NULL:
+                return null;
+            case RETURN_NEXT:
+                return existingChild;
+            case RETURN_PREVIOUS:
+                Relationship previousRelationship = existingChild.getSingleRelationship(NEXT, INCOMING);
+                return previousRelationship == null ? null : previousRelationship.getStartNode();
+            default:
+                throw new IllegalStateException("Unknown child not found policy: " + childNotFoundPolicy);
+        }
+    }
+
+    /**
+     * Find a child node with value equal to the given value using the parent's {@link ChildIndex}. If no such child
+     * exists, return a value according to the provided {@link ChildNotFoundPolicy}.
+     *
+     * @param parent              parent of the node to be found.
+     * @param index               index of the parent's children.
+     * @param value               value of the node to be found.
+     * @param childNotFoundPolicy what to do when child isn't found?
+     * @return child node, or a value specified by the given {@link ChildNotFoundPolicy}.
+     * @throws NotFoundException if the index refers to a node that no longer exists.
+     */
+    private Node findChild(Node parent, ChildIndex index, int value, ChildNotFoundPolicy childNotFoundPolicy) {
+        if (index.size() == 0) {
+            return null;
+        }
+
+        int position = index.search(value);
+        if (position >= 0) {
+            return database.getNodeById(index.idAt(position));
+        }
+
+        position = -position - 1;
+        switch (childNotFoundPolicy) {
+            case RETURN_NULL:
+                return null;
+            case RETURN_NEXT:
+                if (position < index.size()) {
+                    return database.getNodeById(index.idAt(position));
+                }
+                Relationship nextRelationship = database.getNodeById(index.idAt(index.size() - 1)).getSingleRelationship(NEXT, OUTGOING);
+                return nextRelationship == null ? null : nextRelationship.getEndNode();
+            case RETURN_PREVIOUS:
+                if (position > 0) {
+                    return database.getNodeById(index.idAt(position - 1));
+                }
+                Relationship previousRelationship = database.getNodeById(index.idAt(0)).getSingleRelationship(NEXT, INCOMING);
+                return previousRelationship == null ? null : previousRelationship.getStartNode();
+            default:
+                throw new IllegalStateException("Unknown child not found policy: " + childNotFoundPolicy);
+        }
+    }
+
+    /**
+     * Find a child node with value equal to the given value. If no such child exists, create one.
+     *
+     * @param tx     current transaction.
+     * @param parent parent of the node to be found or created.
+     * @param value  value of the node to be found or created.
+     * @return child node.
+     */
+    private Node findOrCreateChild(Transaction tx, Node parent, int value) {
+        Node child = findChild(parent, value, RETURN_NULL);
+        if (child != null) {
+            return child;
+        }
+
+        return lockAndFindOrCreateChild(tx, parent, value);
     }
 
-    private Node getInstant(Node parent, DateTime dateTime, Resolution targetResolution, ChildNotFoundPolicy childNotFoundPolicy) {
-        Resolution currentResolution = currentResolution(parent);
-
-        if (targetResolution.equals(currentResolution)) {
-            return parent;
+    /**
+     * Find a child node with value equal to the given value, knowing a sibling that precedes it. If no such child
+     * exists, create one right after the sibling. When walking a range of instants, this finds or creates each node in
+     * constant time.
+     *
+     * @param tx              current transaction.
+     * @param parent          parent of the node to be found or created.
+     * @param previousSibling child of the parent expected to precede the node to be found or created.
+     * @param value           value of the node to be found or created.
+     * @return child node.
+     */
+    private Node findOrCreateChildAfter(Transaction tx, Node parent, Node previousSibling, int value) {
+        if (getInt(previousSibling, VALUE_PROPERTY) >= value) {
+            //can happen when clocks go back, e.g. at the end of daylight saving time
+            return findOrCreateChild(tx, parent, value);
         }
 
-        Resolution newCurrentResolution = childResolution(parent);
+        Node nextSibling = nextSibling(parent, previousSibling);
+        if (nextSibling != null && getInt(nextSibling, VALUE_PROPERTY) == value) {
+            return nextSibling;
+        }
 
-        Node child = findChild(parent, dateTime.get(newCurrentResolution.getDateTimeFieldType()), RETURN_NULL);
+        tx.acquireWriteLock(parent);
 
-        if (child == null) {
-            switch (childNotFoundPolicy) {
-                case RETURN_NULL:
-                    return null;
-                case RETURN_NEXT:
-                    return getInstantViaClosestChild(parent, dateTime, targetResolution, childNotFoundPolicy, newCurrentResolution, FIRST);
-                case RETURN_PREVIOUS:
-                    return getInstantViaClosestChild(parent, dateTime, targetResolution, childNotFoundPolicy, newCurrentResolution, LAST);
+        for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+            Node child = findOrCreateChildOfLockedParentAfter(tx, parent, previousSibling, value);
+            if (child != null) {
+                return child;
             }
         }
 
-        //recursion
-        return getInstant(child, dateTime, targetResolution, childNotFoundPolicy);
+        LOG.error("Could not create a child with value " + value + " of " + parent + " after " + MAX_INSERT_ATTEMPTS + " attempts!");
+        throw new IllegalStateException("Could not create a child with value " + value + " of " + parent + " after " + MAX_INSERT_ATTEMPTS + " attempts!");
     }
 
-    private Node getInstantViaClosestChild(Node parent, DateTime dateTime, Resolution targetResolution, ChildNotFoundPolicy childNotFoundPolicy, Resolution newCurrentResolution, RelationshipType relationshipType) {
-        Node closestChild = findChild(parent, dateTime.get(newCurrentResolution.getDateTimeFieldType()), childNotFoundPolicy);
-        if (closestChild == null) {
-            return null;
+    /**
+     * Find a child node with value equal to the given value, knowing a sibling that precedes it. If no such child
+     * exists, create one right after the sibling. The parent must be write-locked by the current transaction.
+     *
+     * @param tx              current transaction.
+     * @param parent          parent of the node to be found or created.
+     * @param previousSibling child of the parent with value lower than the given value.
+     * @param value           value of the node to be found or created.
+     * @return child node, <code>null</code> if the operation should be retried.
+     */
+    private Node findOrCreateChildOfLockedParentAfter(Transaction tx, Node parent, Node previousSibling, int value) {
+        Node nextSibling = nextSibling(parent, previousSibling);
+
+        if (nextSibling == null) {
+            Relationship nextRelationship = previousSibling.getSingleRelationship(NEXT, OUTGOING);
+            return createLastChild(tx, parent, previousSibling, nextRelationship == null ? null : nextRelationship.getEndNode(), value);
         }
-        return findChild(closestChild, relationshipType, targetResolution);
-    }
 
-    private Node findChild(Node parent, RelationshipType relationshipType, Resolution targetResolution) {
-        if (!isRoot(parent)) {
-            Resolution currentResolution = findForNode(parent);
+        int nextValue = getInt(nextSibling, VALUE_PROPERTY);
 
-            if (currentResolution.equals(targetResolution)) {
-                return parent;
-            }
+        if (nextValue == value) {
+            return nextSibling;
         }
 
-        Relationship r = parent.getSingleRelationship(relationshipType, OUTGOING);
-        if (r == null) {
-            return null;
+        if (nextValue < value) {
+            return findOrCreateChildOfLockedParent(tx, parent, value);
         }
 
-        return findChild(r.getEndNode(), relationshipType, targetResolution);
+        return createChild(tx, parent, previousSibling, nextSibling, value);
     }
 
-    private Resolution currentResolution(Node parent) {
-        if (isRoot(parent)) {
+    /**
+     * Find the next sibling of a node, i.e. the next node on the same level with the same parent.
+     *
+     * @param parent of the node.
+     * @param child  node.
+     * @return next sibling, <code>null</code> if the node is the parent's last child.
+     */
+    private Node nextSibling(Node parent, Node child) {
+        Relationship lastRelationship = parent.getSingleRelationship(LAST, OUTGOING);
+        if (lastRelationship == null || lastRelationship.getEndNode().getId() == child.getId()) {
             return null;
         }
 
-        return findForNode(parent);
-    }
-
-    private Resolution childResolution(Node parent) {
-        if (isRoot(parent)) {
-            return YEAR;
-        }
-
-        return currentResolution(parent).getChild();
-    }
-
-    enum ChildNotFoundPolicy {
-        RETURN_NULL, RETURN_PREVIOUS, RETURN_NEXT
+        Relationship nextRelationship = child.getSingleRelationship(NEXT, OUTGOING);
+        return nextRelationship == null ? null : nextRelationship.getEndNode();
     }
 
     /**
-     * Get a node representing a specific time instant. If one doesn't exist, it will be created as well as any missing
-     * nodes on the way down from parent (recursively).
+     * Write-lock the parent, then find a child node with value equal to the given value. If no such child exists,
+     * create one.
      *
-     * @param parent           parent node on path to desired instant node.
-     * @param dateTime         time instant.
-     * @param targetResolution target child resolution. Recursion stops when at this level.
-     * @return node representing the time instant at the desired resolution level.
+     * @param tx     current transaction.
+     * @param parent parent of the node to be found or created.
+     * @param value  value of the node to be found or created.
+     * @return child node.
      */
-    private Node getOrCreateInstant(Node parent, DateTime dateTime, Resolution targetResolution) {
-        Resolution currentResolution = currentResolution(parent);
+    private Node lockAndFindOrCreateChild(Transaction tx, Node parent, int value) {
+        tx.acquireWriteLock(parent);
 
-        if (targetResolution.equals(currentResolution)) {
-            return parent;
+        for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS; attempt++) {
+            Node child = findOrCreateChildOfLockedParent(tx, parent, value);
+            if (child != null) {
+                return child;
+            }
         }
 
-        Resolution newCurrentResolution = childResolution(parent);
-
-        Node child = findOrCreateChild(parent, dateTime.get(newCurrentResolution.getDateTimeFieldType()));
-
-        //recursion
-        return getOrCreateInstant(child, dateTime, targetResolution);
+        LOG.error("Could not create a child with value " + value + " of " + parent + " after " + MAX_INSERT_ATTEMPTS + " attempts!");
+        throw new IllegalStateException("Could not create a child with value " + value + " of " + parent + " after " + MAX_INSERT_ATTEMPTS + " attempts!");
     }
 
     /**
-     * Find a child node with value equal to the given value. If no such child exists, return a value according to the
-     * provided {@link ChildNotFoundPolicy}.
+     * Find a child node with value equal to the given value. If no such child exists, create one. The parent must be
+     * write-locked by the current transaction.
      *
-     * @param parent              parent of the node to be found.
-     * @param value               value of the node to be found.
-     * @param childNotFoundPolicy what to do when child isn't found?
-     * @return child node, or a value specified by the given {@link ChildNotFoundPolicy}.
+     * @param tx     current transaction.
+     * @param parent parent of the node to be found or created.
+     * @param value  value of the node to be found or created.
+     * @return child node, <code>null</code> if the child could not be created because its neighbours have been
+     * concurrently modified and the operation should be retried.
      */
-    private Node findChild(Node parent, int value, ChildNotFoundPolicy childNotFoundPolicy) {
+    private Node findOrCreateChildOfLockedParent(Transaction tx, Node parent, int value) {
+        if (isIndexed(parent)) {
+            ChildIndex index = ChildIndex.read(parent);
+            if (index == null) {
+                index = buildChildIndex(parent);
+                index.write(parent);
+            }
+
+            return findOrCreateChildOfLockedParent(tx, parent, index, value);
+        }
+
         Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
         if (firstRelationship == null) {
-            return null;
+            return createFirstChildEver(tx, parent, value);
         }
 
-        Node existingChild = firstRelationship.getEndNode();
-        while (getInt(existingChild, VALUE_PROPERTY) < value && parent(existingChild).getId() == parent.getId()) {
-            Relationship nextRelationship = existingChild.getSingleRelationship(NEXT, OUTGOING);
-
-            if (nextRelationship == null) {
-                switch (childNotFoundPolicy) {
-                    case RETURN_NULL:
-                        return null;
-                    case RETURN_NEXT:
-                        return null;
-                    case RETURN_PREVIOUS:
-                        return existingChild;
-                }
-            }
+        Node lastChild = parent.getSingleRelationship(LAST, OUTGOING).getEndNode();
+        int lastValue = getInt(lastChild, VALUE_PROPERTY);
 
-            if (parent(nextRelationship.getEndNode()).getId() != parent.getId()) {
-                switch (childNotFoundPolicy) {
-                    case RETURN_NULL:
-                        return null;
-                    case RETURN_NEXT:
-                        return nextRelationship.getEndNode();
-                    case RETURN_PREVIOUS:
-                        return existingChild;
-                }
-            }
+        if (value == lastValue) {
+            return lastChild;
+        }
+
+        if (value > lastValue) {
+            Relationship nextRelationship = lastChild.getSingleRelationship(NEXT, OUTGOING);
+            return createLastChild(tx, parent, lastChild, nextRelationship == null ? null : nextRelationship.getEndNode(), value);
+        }
+
+        if (value - getInt(firstRelationship.getEndNode(), VALUE_PROPERTY) > lastValue - value) {
+            return findOrCreateChildOfLockedParentFromLast(tx, parent, firstRelationship.getEndNode(), lastChild, value);
+        }
 
-            existingChild = nextRelationship.getEndNode();
+        //the value is lower than the last child's, so the walk stops at the last child at the latest
+        Node existingChild = firstRelationship.getEndNode();
+        boolean isFirst = true;
+        while (getInt(existingChild, VALUE_PROPERTY) < value) {
+            isFirst = false;
+            existingChild = existingChild.getSingleRelationship(NEXT, OUTGOING).getEndNode();
         }
 
         if (getInt(existingChild, VALUE_PROPERTY) == value) {
             return existingChild;
         }
 
-        //here we claim that getInt(existingChild, VALUE_PROPERTY) > value || parent(existingChild).getId() != parent.getId()
-        switch (childNotFoundPolicy) {
-            case RETURN_NULL:
-                return null;
-            case RETURN_NEXT:
-                return existingChild;
-            case RETURN_PREVIOUS:
-                return existingChild.getSingleRelationship(NEXT, INCOMING) == null ? null : existingChild.getSingleRelationship(NEXT, INCOMING).getStartNode();
-            default:
-                throw new IllegalStateException("Unknown child not found policy: " + childNotFoundPolicy);
+        Relationship previousRelationship = existingChild.getSingleRelationship(NEXT, INCOMING);
+
+        if (isFirst) {
+            return createFirstChild(tx, parent, previousRelationship == null ? null : previousRelationship.getStartNode(), existingChild, value);
         }
+
+        return createChild(tx, parent, previousRelationship.getStartNode(), existingChild, value);
     }
 
     /**
-     * Find a child node with value equal to the given value. If no such child exists, create one.
+     * Find a child node with value equal to the given value by walking the siblings backwards, starting from the last
+     * child. If no such child exists, create one. The parent must be write-locked by the current transaction.
+     *
+     * @param tx         current transaction.
+     * @param parent     parent of the node to be found or created.
+     * @param firstChild first child of the parent.
+     * @param lastChild  last child of the parent.
+     * @param value      value of the node to be found or created, lower than the value of the last child.
+     * @return child node, <code>null</code> if the operation should be retried.
+     */
+    private Node findOrCreateChildOfLockedParentFromLast(Transaction tx, Node parent, Node firstChild, Node lastChild, int value) {
+        Node existingChild = lastChild;
+        while (getInt(existingChild, VALUE_PROPERTY) > value && existingChild.getId() != firstChild.getId()) {
+            existingChild = existingChild.getSingleRelationship(NEXT, INCOMING).getStartNode();
+        }
+
+        int existingValue = getInt(existingChild, VALUE_PROPERTY);
+        if (existingValue == value) {
+            return existingChild;
+        }
+
+        if (existingValue < value) {
+            return createChild(tx, parent, existingChild, existingChild.getSingleRelationship(NEXT, OUTGOING).getEndNode(), value);
+        }
+
+        Relationship previousRelationship = firstChild.getSingleRelationship(NEXT, INCOMING);
+        return createFirstChild(tx, parent, previousRelationship == null ? null : previousRelationship.getStartNode(), firstChild, value);
+    }
+
+    /**
+     * Find a child node with value equal to the given value using the parent's {@link ChildIndex}. If no such child
+     * exists, create one. The parent must be write-locked by the current transaction.
      *
+     * @param tx     current transaction.
      * @param parent parent of the node to be found or created.
+     * @param index  index of the parent's children.
      * @param value  value of the node to be found or created.
-     * @return child node.
+     * @return child node, <code>null</code> if the operation should be retried.
      */
-    private Node findOrCreateChild(Node parent, int value) {
-        Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
-        if (firstRelationship == null) {
-            return createFirstChildEver(parent, value);
+    private Node findOrCreateChildOfLockedParent(Transaction tx, Node parent, ChildIndex index, int value) {
+        if (index.size() == 0) {
+            return createFirstChildEver(tx, parent, value);
         }
 
-        Node existingChild = firstRelationship.getEndNode();
-        boolean isFirst = true;
-        while (getInt(existingChild, VALUE_PROPERTY) < value && parent(existingChild).getId() == parent.getId()) {
-            isFirst = false;
-            Relationship nextRelationship = existingChild.getSingleRelationship(NEXT, OUTGOING);
-
-            if (nextRelationship == null || parent(nextRelationship.getEndNode()).getId() != parent.getId()) {
-                return createLastChild(parent, existingChild, nextRelationship == null ? null : nextRelationship.getEndNode(), value);
-            }
+        int position = index.search(value);
+        if (position >= 0) {
+            return database.getNodeById(index.idAt(position));
+        }
 
-            existingChild = nextRelationship.getEndNode();
+        position = -position - 1;
+        if (position == 0) {
+            Node nextChild = database.getNodeById(index.idAt(0));
+            Relationship previousRelationship = nextChild.getSingleRelationship(NEXT, INCOMING);
+            return createFirstChild(tx, parent, previousRelationship == null ? null : previousRelationship.getStartNode(), nextChild, value);
         }
 
-        if (getInt(existingChild, VALUE_PROPERTY) == value) {
-            return existingChild;
+        Node previousChild = database.getNodeById(index.idAt(position - 1));
+        if (position == index.size()) {
+            Relationship nextRelationship = previousChild.getSingleRelationship(NEXT, OUTGOING);
+            return createLastChild(tx, parent, previousChild, nextRelationship == null ? null : nextRelationship.getEndNode(), value);
         }
 
-        Relationship previousRelationship = existingChild.getSingleRelationship(NEXT, INCOMING);
+        return createChild(tx, parent, previousChild, database.getNodeById(index.idAt(position)), value);
+    }
 
-        if (isFirst) {
-            return createFirstChild(parent, previousRelationship == null ? null : previousRelationship.getStartNode(), existingChild, value);
+    /**
+     * Should the children of the given node be indexed?
+     *
+     * @param parent node.
+     * @return true iff the children of the parent should be looked up using a {@link ChildIndex}.
+     */
+    private boolean isIndexed(Node parent) {
+        return indexedResolution != null && childResolution(parent).compareTo(indexedResolution) >= 0;
+    }
+
+    /**
+     * Build an index of a node's children by walking them from the first to the last one.
+     *
+     * @param parent node.
+     * @return index of the parent's children.
+     */
+    private ChildIndex buildChildIndex(Node parent) {
+        List<Node> children = new ArrayList<>();
+
+        Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
+        if (firstRelationship != null) {
+            long lastChildId = parent.getSingleRelationship(LAST, OUTGOING).getEndNode().getId();
+
+            Node child = firstRelationship.getEndNode();
+            children.add(child);
+            while (child.getId() != lastChildId) {
+                child = child.getSingleRelationship(NEXT, OUTGOING).getEndNode();
+                children.add(child);
+            }
+        }
+
+        int[] values = new int[children.size()];
+        long[] ids = new long[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            values[i] = getInt(children.get(i), VALUE_PROPERTY);
+            ids[i] = children.get(i).getId();
         }
 
-        return createChild(parent, previousRelationship.getStartNode(), existingChild, value);
+        return new ChildIndex(values, ids);
     }
 
     /**
      * Create the first ever child of a parent.
      *
+     * @param tx     current transaction.
      * @param parent to create child for.
      * @param value  value of the node to be created.
-     * @return child node.
+     * @return child node, <code>null</code> if the operation should be retried.
      */
-    private Node createFirstChildEver(Node parent, int value) {
+    private Node createFirstChildEver(Transaction tx, Node parent, int value) {
         if (parent.getSingleRelationship(LAST, OUTGOING) != null) { //sanity check
             LOG.error(parent + " has no " + FIRST + " relationship, but has a " + LAST + " one!");
             throw new IllegalStateException(parent + " has no " + FIRST + " relationship, but has a " + LAST + " one!");
@@ -458,7 +1265,10 @@ public class SingleTimeTree implements TimeTree {
             }
         }
 
-        Node child = createChild(parent, previousChild, nextChild, value);
+        Node child = createChild(tx, parent, previousChild, nextChild, value);
+        if (child == null) {
+            return null;
+        }
 
         parent.createRelationshipTo(child, FIRST);
         parent.createRelationshipTo(child, LAST);
@@ -471,13 +1281,14 @@ public class SingleTimeTree implements TimeTree {
      * number of nodes. In other words, the node being created is not the first parent's child, but it is the child with
      * the lowest ordering.
      *
+     * @param tx            current transaction.
      * @param parent        to create child for.
      * @param previousChild previous child (has different parent), or null for no such child.
      * @param nextChild     next child (has same parent).
      * @param value         value of the node to be created.
-     * @return child node.
+     * @return child node, <code>null</code> if the operation should be retried.
      */
-    private Node createFirstChild(Node parent, Node previousChild, Node nextChild, int value) {
+    private Node createFirstChild(Transaction tx, Node parent, Node previousChild, Node nextChild, int value) {
         Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
 
         if (nextChild.getId() != firstRelationship.getEndNode().getId()) { //sanity check
@@ -485,10 +1296,12 @@ public class SingleTimeTree implements TimeTree {
             throw new IllegalStateException(nextChild + " seems to be the first child of node " + parent + ", but there is no " + FIRST + " relationship between the two!");
         }
 
-        firstRelationship.delete();
-
-        Node child = createChild(parent, previousChild, nextChild, value);
+        Node child = createChild(tx, parent, previousChild, nextChild, value);
+        if (child == null) {
+            return null;
+        }
 
+        firstRelationship.delete();
         parent.createRelationshipTo(child, FIRST);
 
         return child;
@@ -497,13 +1310,14 @@ public class SingleTimeTree implements TimeTree {
     /**
      * Create the last child node that belongs to a specific parent.
      *
+     * @param tx            current transaction.
      * @param parent        to create child for.
      * @param previousChild previous child (has same parent).
      * @param nextChild     next child (has different parent), or null for no such child.
      * @param value         value of the node to be created.
-     * @return child node.
+     * @return child node, <code>null</code> if the operation should be retried.
      */
-    private Node createLastChild(Node parent, Node previousChild, Node nextChild, int value) {
+    private Node createLastChild(Transaction tx, Node parent, Node previousChild, Node nextChild, int value) {
         Relationship lastRelationship = parent.getSingleRelationship(LAST, OUTGOING);
 
         Node endNode = lastRelationship.getEndNode();
@@ -512,10 +1326,12 @@ public class SingleTimeTree implements TimeTree {
             throw new IllegalStateException(previousChild + " seems to be the last child of node " + parent + ", but there is no " + LAST + " relationship between the two!");
         }
 
-        lastRelationship.delete();
-
-        Node child = createChild(parent, previousChild, nextChild, value);
+        Node child = createChild(tx, parent, previousChild, nextChild, value);
+        if (child == null) {
+            return null;
+        }
 
+        lastRelationship.delete();
         parent.createRelationshipTo(child, LAST);
 
         return child;
@@ -523,23 +1339,39 @@ public class SingleTimeTree implements TimeTree {
 
     /**
      * Create a child node.
+     * <p/>
+     * The node whose outgoing {@link com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes#NEXT} relationship
+     * is about to be replaced is write-locked first (the next node if there is no previous node). This serialises
+     * insertions that share a neighbour but have different parents. If the neighbours are no longer adjacent once the
+     * lock is held, another transaction has inserted a node between them and the lock is released again.
      *
+     * @param tx       current transaction.
      * @param parent   parent node.
      * @param previous previous node on the same level, null if the child is the first one.
      * @param next     next node on the same level, null if the child is the last one.
      * @param value    value of the child.
-     * @return the newly created child.
+     * @return the newly created child, <code>null</code> if the neighbours have been concurrently modified and the
+     * operation should be retried.
      */
-    private Node createChild(Node parent, Node previous, Node next, int value) {
-        if (previous != null && next != null && next.getId() != previous.getSingleRelationship(NEXT, OUTGOING).getEndNode().getId()) {
-            LOG.error(previous + " and " + next + " are not connected with a " + NEXT + " relationship!");
-            throw new IllegalArgumentException(previous + " and " + next + " are not connected with a " + NEXT + " relationship!");
+    private Node createChild(Transaction tx, Node parent, Node previous, Node next, int value) {
+        if (!lockNeighbours(tx, previous, next)) {
+            return null;
         }
 
+        markTreeModified();
+
         Node child = database.createNode(TimeTreeLabels.getChild(parent));
         child.setProperty(VALUE_PROPERTY, value);
         parent.createRelationshipTo(child, CHILD);
 
+        //indexes built by trees with indexing configured are kept up to date by all trees, as they may share a root
+        if (parent.hasProperty(ChildIndex.CHILD_IDS_PROPERTY)) {
+            ChildIndex index = ChildIndex.read(parent);
+            if (index != null) {
+                index.with(value, child.getId()).write(parent);
+            }
+        }
+
         if (previous != null) {
             Relationship nextRelationship = previous.getSingleRelationship(NEXT, OUTGOING);
             if (nextRelationship != null) {
@@ -555,12 +1387,81 @@ public class SingleTimeTree implements TimeTree {
         return child;
     }
 
+    /**
+     * Write-lock the neighbours of a node about to be inserted and verify that they are still adjacent. Both neighbours
+     * are locked, since the relationships of both are about to change, and they are locked in the order of their IDs,
+     * because they may belong to different parents and thus be locked by transactions holding different parent locks.
+     *
+     * @param tx       current transaction.
+     * @param previous previous node on the same level, can be null.
+     * @param next     next node on the same level, can be null.
+     * @return true iff the neighbours are locked and still adjacent.
+     */
+    private boolean lockNeighbours(Transaction tx, Node previous, Node next) {
+        if (previous == null && next == null) {
+            return true;
+        }
+
+        List<Lock> locks = lockInOrder(tx, previous, next);
+
+        boolean adjacent;
+        if (previous != null) {
+            Relationship nextRelationship = previous.getSingleRelationship(NEXT, OUTGOING);
+            adjacent = nextRelationship == null ? next == null : next != null && nextRelationship.getEndNode().getId() == next.getId();
+        } else {
+            adjacent = next.getSingleRelationship(NEXT, INCOMING) == null;
+        }
+
+        if (!adjacent) {
+            LOG.debug(previous + " and " + next + " have been concurrently modified, retrying");
+            for (Lock lock : locks) {
+                lock.release();
+            }
+        }
+
+        return adjacent;
+    }
+
+    /**
+     * Write-lock nodes on the same level of the tree in the order of their IDs, so that transactions locking the same
+     * nodes never wait for each other in a cycle.
+     *
+     * @param tx    current transaction.
+     * @param nodes to lock, can contain nulls, which are ignored.
+     * @return acquired locks.
+     */
+    private List<Lock> lockInOrder(Transaction tx, Node... nodes) {
+        List<Node> toLock = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node != null) {
+                toLock.add(node);
+            }
+        }
+
+        Collections.sort(toLock, new Comparator<Node>() {
+            @Override
+            public int compare(Node node1, Node node2) {
+                return Long.compare(node1.getId(), node2.getId());
+            }
+        });
+
+        List<Lock> locks = new ArrayList<>();
+        for (Node node : toLock) {
+            locks.add(tx.acquireWriteLock(node));
+        }
+        return locks;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void removeAll() {
+        markTreeModified();
+        instantCache.clear();
+
         removeChildren(getTimeRoot());
+        rootId = null;
     }
 
     private void removeChildren(Node root) {
@@ -583,6 +1484,102 @@ public class SingleTimeTree implements TimeTree {
             return;
         }
 
+        markTreeModified();
+
+        List<Node> chain = removalChain(instantNode);
+
+        try (Transaction tx = database.beginTx()) {
+            Node top = chain.get(chain.size() - 1);
+            if (top.hasRelationship(CHILD, INCOMING)) {
+                tx.acquireWriteLock(parent(top));
+            }
+
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                lockForRemoval(tx, chain.get(i));
+            }
+
+            for (Node node : chain) {
+                if (node.hasRelationship(CHILD, OUTGOING)) {
+                    LOG.debug(node + " has been concurrently given a child, it will not be removed");
+                    break;
+                }
+                unlink(node);
+            }
+
+            tx.success();
+        }
+    }
+
+    /**
+     * Find the nodes that become empty when an instant is removed, i.e. the instant itself and all its ancestors that
+     * have no other children.
+     *
+     * @param instantNode to be removed.
+     * @return nodes to remove, bottom-up.
+     */
+    private List<Node> removalChain(Node instantNode) {
+        List<Node> chain = new ArrayList<>();
+        chain.add(instantNode);
+
+        Node node = instantNode;
+        while (node.hasRelationship(CHILD, INCOMING)) {
+            Node parent = parent(node);
+            if (parent.getDegree(CHILD, OUTGOING) > 1) {
+                break;
+            }
+            chain.add(parent);
+            node = parent;
+        }
+
+        return chain;
+    }
+
+    /**
+     * Write-lock a node about to be removed together with its neighbours on the same level, which are the nodes a
+     * concurrent insert next to it would lock as well, in the same order. Its parent must be locked by the caller.
+     *
+     * @param tx   current transaction.
+     * @param node to be removed.
+     */
+    private void lockForRemoval(Transaction tx, Node node) {
+        while (true) {
+            Node previous = previous(node);
+            Node next = next(node);
+            List<Lock> locks = lockInOrder(tx, previous, node, next);
+
+            if (sameNode(previous, previous(node)) && sameNode(next, next(node))) {
+                return;
+            }
+
+            LOG.debug("Neighbours of " + node + " have been concurrently modified, retrying");
+            for (Lock lock : locks) {
+                lock.release();
+            }
+        }
+    }
+
+    private Node next(Node node) {
+        Relationship next = node.getSingleRelationship(NEXT, OUTGOING);
+        return next != null ? next.getEndNode() : null;
+    }
+
+    private boolean sameNode(Node node1, Node node2) {
+        return node1 == null ? node2 == null : node2 != null && node1.getId() == node2.getId();
+    }
+
+    private Node previous(Node node) {
+        Relationship previous = node.getSingleRelationship(NEXT, INCOMING);
+        return previous != null ? previous.getStartNode() : null;
+    }
+
+    /**
+     * Unlink a locked, childless node from the tree and delete it.
+     *
+     * @param instantNode to delete.
+     */
+    private void unlink(Node instantNode) {
+        instantCache.invalidate(instantNode.getId());
+
         Relationship first = instantNode.getSingleRelationship(FIRST, INCOMING);
         Relationship last = instantNode.getSingleRelationship(LAST, INCOMING);
 
@@ -623,12 +1620,35 @@ public class SingleTimeTree implements TimeTree {
 
         if (instantNode.hasRelationship(CHILD, INCOMING)) {
             Relationship toParent = instantNode.getSingleRelationship(CHILD, INCOMING);
+            removeFromChildIndex(toParent.getStartNode(), instantNode);
             toParent.delete();
-            removeInstant(toParent.getStartNode());
         }
         instantNode.delete();
     }
 
+    /**
+     * Remove a node from its parent's {@link ChildIndex}, if the parent has one.
+     *
+     * @param parent of the node.
+     * @param child  to remove.
+     */
+    private void removeFromChildIndex(Node parent, Node child) {
+        if (!parent.hasProperty(ChildIndex.CHILD_IDS_PROPERTY)) {
+            return;
+        }
+
+        try (Transaction tx = database.beginTx()) {
+            tx.acquireWriteLock(parent);
+
+            ChildIndex index = ChildIndex.read(parent);
+            if (index != null) {
+                index.without(child.getId()).write(parent);
+            }
+
+            tx.success();
+        }
+    }
+
     /**
      * Find the parent of a node.
      *
@@ -647,7 +1667,19 @@ public class SingleTimeTree implements TimeTree {
         return parentRelationship.getStartNode();
     }
 
+    /**
+     * Is the given node the root of this tree? The cached root ID is used when available, since this is called at every
+     * level of every lookup, after the root has already been obtained by {@link #getTimeRoot()}.
+     *
+     * @param node to check.
+     * @return true iff the node is the root.
+     */
     private boolean isRoot(Node node) {
+        Long cachedRootId = rootId;
+        if (cachedRootId != null) {
+            return node.getId() == cachedRootId;
+        }
+
         return node.getId() == getTimeRoot().getId();
     }
 }
@@ -16,9 +16,11 @@
 
 package com.graphaware.module.timetree;
 
+import com.graphaware.module.timetree.domain.SortOrder;
 import com.graphaware.module.timetree.domain.TimeInstant;
 import org.neo4j.graphdb.Node;
 
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -63,6 +65,29 @@ public interface TimeTree {
      */
     List<Node> getInstants(TimeInstant startTime, TimeInstant endTime);
 
+    /**
+     * Lazily iterate over nodes representing time instants in the specified range (inclusive). Only instants that exist
+     * are visited, by following the chain of nodes at the range's resolution, so the cost is proportional to the number
+     * of existing instants rather than the length of the range. The iterator must be consumed within a transaction.
+     *
+     * @param startTime Time instant representing the start of the interval (inclusive).
+     * @param endTime   Time instant representing the end of the interval (inclusive).
+     * @return iterator over nodes representing time instants in the interval, ordered chronologically.
+     */
+    Iterator<Node> iterateInstants(TimeInstant startTime, TimeInstant endTime);
+
+    /**
+     * Lazily iterate over nodes representing time instants in the specified range (inclusive), in the given order.
+     * When descending, the iteration starts at the end of the range and follows the chain of nodes backwards.
+     * The iterator must be consumed within a transaction.
+     *
+     * @param startTime Time instant representing the start of the interval (inclusive).
+     * @param endTime   Time instant representing the end of the interval (inclusive).
+     * @param order     in which to iterate.
+     * @return iterator over nodes representing time instants in the interval, in the given order.
+     */
+    Iterator<Node> iterateInstants(TimeInstant startTime, TimeInstant endTime, SortOrder order);
+
     /**
      * Get a node representing a specific time instant. If one doesn't exist, it will be created.
      *
@@ -73,6 +98,7 @@ public interface TimeTree {
 
     /**
      * Get nodes representing all time instants in the specified range (inclusive). The ones that don't exist will be created.
+     * All nodes are held in memory, use {@link #iterateOrCreateInstants(TimeInstant, TimeInstant, int)} for large ranges.
      *
      * @param startTime TimeInstant representing the start of the interval (inclusive)
      * @param endTime   TimeInstant representing the end of the interval (inclusive)
@@ -80,6 +106,18 @@ public interface TimeTree {
      */
     List<Node> getOrCreateInstants(TimeInstant startTime, TimeInstant endTime);
 
+    /**
+     * Iterate over nodes representing all time instants in the specified range (inclusive). The ones that don't exist
+     * will be created lazily, as the iteration proceeds, a batch at a time, each batch committed in a separate
+     * transaction unless iterated within an existing one.
+     *
+     * @param startTime TimeInstant representing the start of the interval (inclusive)
+     * @param endTime   TimeInstant representing the end of the interval (inclusive)
+     * @param batchSize number of time instants found or created in a single transaction.
+     * @return iterator over nodes representing all time instants in the interval, ordered chronologically.
+     */
+    Iterator<Node> iterateOrCreateInstants(TimeInstant startTime, TimeInstant endTime, int batchSize);
+
     /**
      * Remove the Complete Index-Tree.
      * <b>ATTENTION</b> this will remove all the root-node and nodes matching (root)-[:CHILD*1..]-(child) so never
@@ -1,14 +1,25 @@
 package com.graphaware.module.timetree;
 
+import com.graphaware.module.timetree.domain.Aggregate;
+import com.graphaware.module.timetree.domain.AttachResult;
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventPage;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.SortOrder;
 import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes;
+import com.graphaware.module.timetree.domain.TimedEvent;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
+import org.joda.time.DateTimeZone;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
 
 import java.util.*;
 
-import static com.graphaware.module.timetree.SingleTimeTree.parent;
+import static com.graphaware.common.util.PropertyContainerUtils.getInt;
 import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.*;
 import static com.graphaware.module.timetree.domain.ValidationUtils.validateRange;
 import static org.neo4j.graphdb.Direction.INCOMING;
@@ -19,9 +30,16 @@ import static org.neo4j.graphdb.Direction.OUTGOING;
  */
 public class TimeTreeBackedEvents implements TimedEvents {
 
+    private static final int MAX_HISTOGRAM_BUCKETS = 100000;
+
     private final TimeTree timeTree;
 
-    private static final List<String> timeTreeRelationships = getTimeTreeRelationshipNames();
+    private static final Comparator<TimedEvent> BY_TIME = new Comparator<TimedEvent>() {
+        @Override
+        public int compare(TimedEvent e1, TimedEvent e2) {
+            return Long.compare(e1.getTimeInstant().getTime(), e2.getTimeInstant().getTime());
+        }
+    };
 
     public TimeTreeBackedEvents(TimeTree timeTree) {
         this.timeTree = timeTree;
@@ -32,18 +50,140 @@ public class TimeTreeBackedEvents implements TimedEvents {
      */
     @Override
     public boolean attachEvent(Node event, RelationshipType relationshipType, TimeInstant timeInstant) {
-        Node instant = timeTree.getOrCreateInstant(timeInstant);
+        return attachEvent(event, relationshipType, timeTree.getOrCreateInstant(timeInstant));
+    }
 
-        for (Relationship existing : event.getRelationships(OUTGOING, relationshipType)) {
-            if (existing.getEndNode().getId() == instant.getId()) {
-                return false;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AttachResult attachEvents(Collection<TimedEvent> events, int batchSize) {
+        List<TimedEvent> sorted = new ArrayList<>(events);
+        Collections.sort(sorted, BY_TIME);
+
+        return attachEvents(sorted.iterator(), batchSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AttachResult attachEvents(Iterator<TimedEvent> events, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, was " + batchSize);
+        }
+
+        AttachResult result = new AttachResult(0, 0);
+        List<TimedEvent> batch = new ArrayList<>(batchSize);
+
+        while (events.hasNext()) {
+            batch.add(events.next());
+
+            if (batch.size() == batchSize) {
+                result = result.plus(attachBatch(batch));
+                batch.clear();
             }
         }
 
+        if (!batch.isEmpty()) {
+            result = result.plus(attachBatch(batch));
+        }
+
+        return result;
+    }
+
+    /**
+     * Attach a batch of events in a single transaction, resolving each distinct time instant once.
+     *
+     * @param batch of events, must not be empty.
+     * @return numbers of attached and skipped events.
+     */
+    private AttachResult attachBatch(List<TimedEvent> batch) {
+        Collections.sort(batch, BY_TIME);
+
+        long attached = 0;
+        long skipped = 0;
+
+        try (Transaction tx = batch.get(0).getNode().getGraphDatabase().beginTx()) {
+            TimeInstant previousInstant = null;
+            Node instant = null;
+
+            for (TimedEvent event : batch) {
+                TimeInstant timeInstant = event.getTimeInstant().truncate();
+
+                if (previousInstant == null || !sameInstant(previousInstant, timeInstant)) {
+                    instant = timeTree.getOrCreateInstant(timeInstant);
+                    previousInstant = timeInstant;
+                }
+
+                if (attachEvent(event.getNode(), event.getRelationshipType(), instant)) {
+                    attached++;
+                } else {
+                    skipped++;
+                }
+            }
+
+            tx.success();
+        }
+
+        return new AttachResult(attached, skipped);
+    }
+
+    private boolean sameInstant(TimeInstant truncated1, TimeInstant truncated2) {
+        return truncated1.getTime() == truncated2.getTime() && truncated1.compatibleWith(truncated2);
+    }
+
+    /**
+     * Attach an event to a node representing a time instant, unless it is already attached to it.
+     *
+     * @param event            event node.
+     * @param relationshipType type of the relationship between the event node and the time instant node.
+     * @param instant          node representing the time instant.
+     * @return <code>true</code> iff the event was attached, <code>false</code> iff it was already attached.
+     */
+    private boolean attachEvent(Node event, RelationshipType relationshipType, Node instant) {
+        if (isAttached(event, relationshipType, instant)) {
+            return false;
+        }
+
         event.createRelationshipTo(instant, relationshipType);
         return true;
     }
 
+    /**
+     * Check whether an event is attached to a node representing a time instant. Relationship degrees are checked
+     * first, so an event without any relationship of the type is recognised without loading relationships, and
+     * otherwise only the relationships of the node with fewer of them are scanned. That keeps attaching events to hub
+     * nodes (events with many relationships of the type, or time instants with many events) linear.
+     *
+     * @param event            event node.
+     * @param relationshipType type of the relationship between the event node and the time instant node.
+     * @param instant          node representing the time instant.
+     * @return <code>true</code> iff the event is attached to the time instant.
+     */
+    public static boolean isAttached(Node event, RelationshipType relationshipType, Node instant) {
+        int eventDegree = event.getDegree(relationshipType, OUTGOING);
+        if (eventDegree == 0) {
+            return false;
+        }
+
+        if (eventDegree <= instant.getDegree(relationshipType, INCOMING)) {
+            for (Relationship existing : event.getRelationships(OUTGOING, relationshipType)) {
+                if (existing.getEndNode().getId() == instant.getId()) {
+                    return true;
+                }
+            }
+        } else {
+            for (Relationship existing : instant.getRelationships(INCOMING, relationshipType)) {
+                if (existing.getStartNode().getId() == event.getId()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -65,104 +205,355 @@ public class TimeTreeBackedEvents implements TimedEvents {
      */
     @Override
     public List<Event> getEvents(TimeInstant timeInstant, Set<RelationshipType> types) {
-        Node instantNode = timeTree.getInstant(timeInstant);
+        return toList(iterateEvents(timeInstant, types));
+    }
 
-        if (instantNode == null) {
-            return Collections.emptyList();
-        }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types) {
+        return toList(iterateEvents(startTime, endTime, types));
+    }
 
-        return getEventsAttachedToNodeAndChildren(instantNode, types);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Event> getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, SortOrder order) {
+        return toList(iterateEvents(startTime, endTime, types, order));
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public List<Event> getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types) {
+    public long countEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types) {
         validateRange(startTime, endTime);
 
-        List<Event> events = new LinkedList<>();
+        RelationshipType[] eventTypes = EventIterator.eventTypes(types);
+        if (eventTypes != null && eventTypes.length == 0) {
+            return 0;
+        }
+
+        //all the instants belong to the same tree, so whether its counters are maintained is decided once
+        Iterator<Node> instants = timeTree.iterateInstants(startTime, endTime);
+        Boolean useCounters = null;
+        long count = 0;
+
+        while (instants.hasNext()) {
+            Node instant = instants.next();
+
+            if (useCounters == null) {
+                useCounters = eventTypes != null && EventCounters.isMaintained(instant, eventTypes);
+            }
+
+            count += useCounters ? EventCounters.count(instant, eventTypes) : countEvents(instant, eventTypes);
+        }
+
+        return count;
+    }
+
+    /**
+     * Count events attached to a time instant and all its children.
+     *
+     * @param instant time instant node.
+     * @param types   of relationships attaching events, without time tree relationship types, <code>null</code> for all.
+     * @return number of events.
+     */
+    private long countEvents(Node instant, RelationshipType[] types) {
+        long count = countOwnEvents(instant, types);
+
+        Relationship firstRelationship = instant.getSingleRelationship(FIRST, OUTGOING);
+        if (firstRelationship == null) {
+            return count;
+        }
+
+        long lastChildId = instant.getSingleRelationship(LAST, OUTGOING).getEndNode().getId();
+        Node child = firstRelationship.getEndNode();
+        while (true) {
+            count += countEvents(child, types);
 
-        Node startTimeNode = timeTree.getInstantAtOrAfter(startTime);
-        Node endTimeNode = timeTree.getInstantAtOrBefore(endTime);
+            if (child.getId() == lastChildId) {
+                return count;
+            }
 
-        if (startTimeNode == null || endTimeNode == null) {
-            return events;
+            child = child.getSingleRelationship(NEXT, OUTGOING).getEndNode();
         }
+    }
 
-        events.addAll(getEventsAttachedToNodeAndChildren(startTimeNode, types));
+    /**
+     * Count events attached directly to a time instant, using relationship degrees.
+     *
+     * @param instant time instant node.
+     * @param types   of relationships attaching events, without time tree relationship types, <code>null</code> for all.
+     * @return number of events.
+     */
+    private long countOwnEvents(Node instant, RelationshipType[] types) {
+        long count = 0;
 
-        if (startTimeNode.getId() == endTimeNode.getId()) {
-            return events;
+        if (types == null) {
+            count = instant.getDegree(INCOMING);
+            for (TimeTreeRelationshipTypes type : TimeTreeRelationshipTypes.values()) {
+                count -= instant.getDegree(type, INCOMING);
+            }
+            return count;
         }
 
-        Relationship next = startTimeNode.getSingleRelationship(NEXT, OUTGOING);
-        while (next != null && !(next.getEndNode().equals(endTimeNode))) {
-            Node timeInstant = next.getEndNode();
-            events.addAll(getEventsAttachedToNodeAndChildren(timeInstant, types));
-            next = timeInstant.getSingleRelationship(NEXT, OUTGOING);
+        for (RelationshipType type : types) {
+            count += instant.getDegree(type, INCOMING);
         }
-        events.addAll(getEventsAttachedToNodeAndChildren(endTimeNode, types));
 
-        return events;
+        return count;
     }
 
-    private List<Event> getEventsAttachedToNodeAndChildren(Node parent, Set<RelationshipType> types) {
-        List<Event> result = new ArrayList<>();
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Aggregate aggregateEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, String property) {
+        validateRange(startTime, endTime);
 
-        Relationship firstRelationship = parent.getSingleRelationship(FIRST, OUTGOING);
-        if (firstRelationship == null) {
-            return getEventsAttachedToNode(parent, types);
+        RelationshipType[] eventTypes = EventIterator.eventTypes(types);
+        if (eventTypes != null && eventTypes.length == 0) {
+            return Aggregate.EMPTY;
         }
 
-        Node child = null;
+        if (eventTypes != null) {
+            List<Node> buckets = new ArrayList<>();
+            for (TimeInstant bucket : alignedBuckets(startTime, endTime)) {
+                Node instant = timeTree.getInstant(bucket);
+                if (instant != null) {
+                    buckets.add(instant);
+                }
+            }
 
-        while (true) {
-            if (child == null) {
-                child = firstRelationship.getEndNode();
-            } else {
-                Relationship nextRelationship = child.getSingleRelationship(NEXT, OUTGOING);
+            if (buckets.isEmpty()) {
+                return Aggregate.EMPTY;
+            }
 
-                if (nextRelationship == null || parent(nextRelationship.getEndNode()).getId() != parent.getId()) {
-                    break;
+            //all the buckets belong to the same tree and rollups are configured on its root, so any bucket will do
+            if (EventRollups.isMaintained(buckets.get(0), eventTypes, property)) {
+                Aggregate result = Aggregate.EMPTY;
+                for (Node bucket : buckets) {
+                    result = result.plus(EventRollups.read(bucket, property));
                 }
+                return result;
+            }
+        }
 
-                child = nextRelationship.getEndNode();
+        Aggregate result = Aggregate.EMPTY;
+        Iterator<Event> events = iterateEvents(startTime, endTime, types);
+        while (events.hasNext()) {
+            Double value = EventRollups.value(events.next().getNode(), property);
+            if (value != null) {
+                result = result.plus(Aggregate.of(value));
             }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SortedMap<Long, Long> getHistogram(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types) {
+        validateRange(startTime, endTime);
+
+        DateTimeZone timeZone = startTime.getTimezone();
+        DateTimeFieldType field = startTime.getResolution().getDateTimeFieldType();
+
+        SortedMap<Long, Long> histogram = new TreeMap<>();
+        long end = endTime.truncate().getTime();
+        for (DateTime bucket = new DateTime(startTime.truncate().getTime(), timeZone); bucket.getMillis() <= end; bucket = bucket.property(field).addToCopy(1)) {
+            if (histogram.size() >= MAX_HISTOGRAM_BUCKETS) {
+                throw new IllegalArgumentException("Histogram would have more than " + MAX_HISTOGRAM_BUCKETS + " buckets, use a coarser resolution or a shorter range");
+            }
+            histogram.put(bucket.getMillis(), 0L);
+        }
 
-            result.addAll(getEventsAttachedToNodeAndChildren(child, types));
+        RelationshipType[] eventTypes = EventIterator.eventTypes(types);
+        if (eventTypes != null && eventTypes.length == 0) {
+            return histogram;
         }
 
-        result.addAll(getEventsAttachedToNode(parent, types));
+        //all the instants belong to the same tree, so whether its counters are maintained is decided once
+        Iterator<Node> instants = timeTree.iterateInstants(startTime, endTime);
+        Boolean useCounters = null;
+        Node parent = null;
+        int[] parentValues = null;
 
+        while (instants.hasNext()) {
+            Node instant = instants.next();
+
+            if (useCounters == null) {
+                useCounters = eventTypes != null && EventCounters.isMaintained(instant, eventTypes);
+            }
+
+            //siblings share their parent, so the ancestors' values are only looked up once per parent
+            Node instantParent = SingleTimeTree.parent(instant);
+            if (parent == null || parent.getId() != instantParent.getId()) {
+                parent = instantParent;
+                parentValues = values(parent);
+            }
+
+            int[] values = Arrays.copyOf(parentValues, parentValues.length + 1);
+            values[parentValues.length] = getInt(instant, SingleTimeTree.VALUE_PROPERTY);
+
+            long count = useCounters ? EventCounters.count(instant, eventTypes) : countEvents(instant, eventTypes);
+            histogram.put(toTime(values, timeZone), count);
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Get the values of a node and its ancestors, i.e. its year, month, day, etc.
+     *
+     * @param node time instant or root.
+     * @return values, starting with the year, empty for the root.
+     */
+    private int[] values(Node node) {
+        LinkedList<Integer> values = new LinkedList<>();
+        Node current = node;
+        Relationship parentRelationship;
+        while ((parentRelationship = current.getSingleRelationship(CHILD, INCOMING)) != null) {
+            values.addFirst(getInt(current, SingleTimeTree.VALUE_PROPERTY));
+            current = parentRelationship.getStartNode();
+        }
+
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
         return result;
     }
 
-    private List<Event> getEventsAttachedToNode(Node node, Set<RelationshipType> types) {
-        List<Event> result = new LinkedList<>();
+    /**
+     * Convert the values of a time instant and its ancestors to the time the instant starts at.
+     *
+     * @param values   year, month, day, etc.
+     * @param timeZone of the tree.
+     * @return time in ms since the epoch.
+     */
+    private long toTime(int[] values, DateTimeZone timeZone) {
+        int[] fields = {1970, 1, 1, 0, 0, 0, 0};
+        System.arraycopy(values, 0, fields, 0, values.length);
+        return new DateTime(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5], fields[6], timeZone).getMillis();
+    }
+
+    /**
+     * Split a range into the smallest number of time instants covering it exactly, each at the coarsest resolution
+     * (not finer than the range's) whose unit is fully contained in the range.
+     *
+     * @param startTime start of the range (inclusive).
+     * @param endTime   end of the range (inclusive), with the same resolution and time zone as the start.
+     * @return time instants, in chronological order.
+     */
+    static List<TimeInstant> alignedBuckets(TimeInstant startTime, TimeInstant endTime) {
+        List<TimeInstant> result = new ArrayList<>();
+
+        Resolution rangeResolution = startTime.getResolution();
+        long end = endTime.truncate().next().getTime();
+        TimeInstant current = startTime.truncate();
 
-        for (Relationship rel : node.getRelationships(INCOMING)) {
-            if (!timeTreeRelationships.contains(rel.getType().name())) {
-                if (types == null || contains(types, rel.getType())) {
-                    result.add(new Event(rel.getOtherNode(node), rel.getType()));
+        while (current.getTime() < end) {
+            TimeInstant bucket = current;
+            for (Resolution resolution : Resolution.values()) {
+                if (resolution.compareTo(rangeResolution) >= 0) {
+                    break;
+                }
+
+                TimeInstant candidate = current.with(resolution);
+                if (candidate.truncate().getTime() == current.getTime() && candidate.next().getTime() <= end) {
+                    bucket = candidate;
+                    break;
                 }
             }
+
+            result.add(bucket);
+            current = bucket.next().with(rangeResolution).truncate();
         }
 
         return result;
     }
 
-    private boolean contains(Set<RelationshipType> types, RelationshipType toCheck) {
-        if (types == null || toCheck == null) {
-            throw new IllegalArgumentException("Relationship types must not be null, this is a bug");
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Event> iterateEvents(TimeInstant timeInstant, Set<RelationshipType> types) {
+        Node instantNode = timeTree.getInstant(timeInstant);
+
+        if (instantNode == null) {
+            return Collections.emptyIterator();
         }
 
-        for (RelationshipType type : types) {
-            if (toCheck.name().equals(type.name())) {
-                return true;
+        return new EventIterator(Collections.singleton(instantNode).iterator(), types);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Event> iterateEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types) {
+        return iterateEvents(startTime, endTime, types, SortOrder.ASCENDING);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Event> iterateEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, SortOrder order) {
+        return new EventIterator(timeTree.iterateInstants(startTime, endTime, order), types, order);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EventPage getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> types, SortOrder order, String cursor, int offset, int limit) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative, was " + offset);
+        }
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive, was " + limit);
+        }
+
+        EventIterator events;
+        if (cursor == null) {
+            events = new EventIterator(timeTree.iterateInstants(startTime, endTime, order), types, order);
+        } else {
+            validateRange(startTime, endTime);
+
+            Node lastInstant = order == SortOrder.DESCENDING ? timeTree.getInstantAtOrAfter(startTime) : timeTree.getInstantAtOrBefore(endTime);
+            if (lastInstant == null) {
+                return new EventPage(Collections.<Event>emptyList(), null);
             }
+
+            events = EventIterator.resume(lastInstant.getGraphDatabase(), cursor, endTime.getResolution(), lastInstant, types, order);
         }
 
-        return false;
+        for (int i = 0; i < offset && events.hasNext(); i++) {
+            events.next();
+        }
+
+        List<Event> result = new ArrayList<>();
+        while (result.size() < limit && events.hasNext()) {
+            result.add(events.next());
+        }
+
+        return new EventPage(result, events.hasNext() ? events.getCursor() : null);
+    }
+
+    private List<Event> toList(Iterator<Event> events) {
+        List<Event> result = new ArrayList<>();
+
+        while (events.hasNext()) {
+            result.add(events.next());
+        }
+
+        return result;
     }
 }
@@ -16,13 +16,21 @@
 
 package com.graphaware.module.timetree;
 
+import com.graphaware.module.timetree.domain.Aggregate;
+import com.graphaware.module.timetree.domain.AttachResult;
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventPage;
+import com.graphaware.module.timetree.domain.SortOrder;
 import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimedEvent;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.RelationshipType;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
 
 /**
  * API for representing events in time.
@@ -39,6 +47,30 @@ public interface TimedEvents {
      */
     boolean attachEvent(Node event, RelationshipType relationshipType, TimeInstant timeInstant);
 
+    /**
+     * Attach multiple events to nodes representing their time instants. Time instants that don't exist will be
+     * created. The events are sorted by time, each distinct time instant is resolved only once, and the work is
+     * committed in batches of the given size. When called within an existing transaction, nothing is committed until
+     * that transaction is.
+     *
+     * @param events    events to attach.
+     * @param batchSize number of events attached in a single transaction.
+     * @return numbers of attached events and events skipped because they were already attached.
+     */
+    AttachResult attachEvents(Collection<TimedEvent> events, int batchSize);
+
+    /**
+     * Attach multiple events to nodes representing their time instants. Time instants that don't exist will be
+     * created. The events are consumed in batches of the given size. Each batch is sorted by time, each distinct time
+     * instant in it is resolved only once, and it is committed in a single transaction. When called within an existing
+     * transaction, nothing is committed until that transaction is.
+     *
+     * @param events    events to attach.
+     * @param batchSize number of events attached in a single transaction.
+     * @return numbers of attached events and events skipped because they were already attached.
+     */
+    AttachResult attachEvents(Iterator<TimedEvent> events, int batchSize);
+
     /**
      * Get events attached (using any incoming relationship) to a specific time instant and all its children.
      * If the time instant doesn't exist, it will <b>not</b> be created and an empty list will be returned.
@@ -82,4 +114,138 @@ public interface TimedEvents {
      * resolution before events with lower resolution.
      */
     List<Event> getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes);
+
+    /**
+     * Get events attached (via an incoming relationship of one of the specified types) to all time instants in the
+     * specified range (inclusive) and all their children, in the given order. The time instants that don't exist will
+     * <b>not</b> be created.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive).
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, <code>null</code> for all.
+     * @param order             of the events. {@link SortOrder#DESCENDING} returns the exact reverse of
+     *                          {@link SortOrder#ASCENDING} as far as time instants are concerned, i.e. newest first with
+     *                          events with lower resolution before events with higher resolution.
+     * @return events attached to all time instants in the interval and their children, in the given order.
+     */
+    List<Event> getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, SortOrder order);
+
+    /**
+     * Count events attached (via an incoming relationship of one of the specified types) to all time instants in the
+     * specified range (inclusive) and all their children. The time instants that don't exist will <b>not</b> be
+     * created. The events are counted using relationship degrees of the time instants, without loading them, or read
+     * from the instants' materialised {@link EventCounters} if the tree maintains them for the requested types (which
+     * is decided once, for the root of the tree). Events attached to coarser instants enclosing the interval are not
+     * counted, so the result always equals the number of events returned by
+     * {@link #getEvents(TimeInstant, TimeInstant, Set)}.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive).
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, <code>null</code> for all.
+     * @return number of events attached to all time instants in the interval and their children.
+     */
+    long countEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes);
+
+    /**
+     * Aggregate a numeric property of events attached (via an incoming relationship of one of the specified types) to
+     * all time instants in the specified range (inclusive) and all their children. The time instants that don't exist
+     * will <b>not</b> be created.
+     * <p/>
+     * If the property is rolled up for the (single) requested type by {@link EventRollups} (which is decided once, for
+     * the root of the tree), the range is split into the coarsest time instants fully contained in it (e.g. the days at
+     * the start of the range, then whole months, then the days at its end) and their pre-computed aggregates are
+     * combined, so no events are visited. Events attached directly to such a coarser instant are included in that case.
+     * Otherwise, all events in the range are visited.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive).
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, <code>null</code> for all.
+     * @param property          name of the numeric property of the events to aggregate. Events without a numeric value
+     *                          of the property are ignored.
+     * @return aggregate of the property. When rollups are used, only the rolled up aggregations are available.
+     */
+    Aggregate aggregateEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, String property);
+
+    /**
+     * Count events attached (via an incoming relationship of one of the specified types) to each time instant in the
+     * specified range (inclusive) and all its children, i.e. build a histogram of the events with one bucket per time
+     * instant at the range's resolution. The existing time instants are visited in a single walk and counted like
+     * {@link #countEvents(TimeInstant, TimeInstant, java.util.Set)} does, i.e. from their {@link EventCounters} if the
+     * tree maintains them for the requested types (which is decided once, for the root of the tree). The time instants that don't exist will
+     * <b>not</b> be created.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive). Its resolution is the
+     *                          resolution of the buckets.
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, <code>null</code> for all.
+     * @return number of events keyed by the start time of each bucket (in ms since the epoch), in chronological order.
+     * Buckets without events are included with a count of 0.
+     * @throws IllegalArgumentException if the range contains too many buckets.
+     */
+    SortedMap<Long, Long> getHistogram(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes);
+
+    /**
+     * Lazily iterate over events attached (via an incoming relationship of one of the specified types) to a specific
+     * time instant and all its children. If the time instant doesn't exist, it will <b>not</b> be created and the
+     * iterator will be empty. The events are found as the iterator is consumed, which must happen within a transaction.
+     *
+     * @param timeInstant       specific time instant.
+     * @param relationshipTypes of the relationships between the event and the time instant, <code>null</code> for all.
+     * @return iterator over events attached to the time instant and all children. Ordered chronologically with events
+     * with higher resolution before events with lower resolution.
+     */
+    Iterator<Event> iterateEvents(TimeInstant timeInstant, Set<RelationshipType> relationshipTypes);
+
+    /**
+     * Lazily iterate over events attached (via an incoming relationship of one of the specified types) to all time
+     * instants in the specified range (inclusive) and all their children. The time instants that don't exist will
+     * <b>not</b> be created. The events are found as the iterator is consumed, which must happen within a transaction.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive).
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, <code>null</code> for all.
+     * @return iterator over events attached to all time instants in the interval and their children. Ordered
+     * chronologically with events with higher resolution before events with lower resolution.
+     */
+    Iterator<Event> iterateEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes);
+
+    /**
+     * Lazily iterate over events attached (via an incoming relationship of one of the specified types) to all time
+     * instants in the specified range (inclusive) and all their children, in the given order. The time instants that
+     * don't exist will <b>not</b> be created. When descending, the tree is walked from its tail, so consuming only the
+     * first few events only touches the newest part of the tree. The iterator must be consumed within a transaction.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive).
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, <code>null</code> for all.
+     * @param order             of the events.
+     * @return iterator over events attached to all time instants in the interval and their children, in the given
+     * order.
+     */
+    Iterator<Event> iterateEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, SortOrder order);
+
+    /**
+     * Get a page of events attached (via an incoming relationship of one of the specified types) to all time instants
+     * in the specified range (inclusive) and all their children. The time instants that don't exist will <b>not</b> be
+     * created. Only the events on the page (and the skipped ones) are visited, so paging through a large range is
+     * cheap.
+     * <p/>
+     * The next page is fetched by passing the cursor of the previous page, together with the same range, relationship
+     * types and order. Events attached before the cursor's position in the meantime will not be returned. A cursor can
+     * no longer be used once the event it was obtained for has been detached from its time instant; paging has to start
+     * over in that case.
+     *
+     * @param startTime         Time instant representing the start of the interval (inclusive).
+     * @param endTime           Time instant representing the end of the interval (inclusive).
+     * @param relationshipTypes of the relationships between the event and the time instants, <code>null</code> for all.
+     * @param order             of the events.
+     * @param cursor            obtained from the previous page, <code>null</code> to start at the beginning of the range
+     *                          (its end when descending).
+     * @param offset            number of events to skip (after the cursor, if any).
+     * @param limit             maximum number of events on the page.
+     * @return page of events, in the given order.
+     * @throws IllegalArgumentException if the cursor is invalid or no longer valid, the offset negative, or the limit
+     *                                  not positive.
+     */
+    EventPage getEvents(TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, SortOrder order, String cursor, int offset, int limit);
 }
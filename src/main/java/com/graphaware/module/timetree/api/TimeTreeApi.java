@@ -26,10 +26,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Collections;
-import java.util.Map;
+import java.util.*;
 
-import static com.graphaware.common.util.PropertyContainerUtils.ids;
 
 /**
  * REST API for {@link com.graphaware.module.timetree.TimeTree}.
@@ -38,6 +36,7 @@ import static com.graphaware.common.util.PropertyContainerUtils.ids;
 @RequestMapping("/timetree")
 public class TimeTreeApi {
     private static final Logger LOG = LoggerFactory.getLogger(TimeTreeApi.class);
+    private static final int BATCH_SIZE = 1000;
 
     private final GraphDatabaseService database;
     private final TimeTree timeTree;
@@ -75,17 +74,10 @@ public class TimeTreeApi {
             @RequestParam(required = false) String resolution,
             @RequestParam(required = false) String timezone) {
 
-        Long[] ids;
-
         TimeInstant startTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(startTime, resolution, timezone));
         TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
 
-        try (Transaction tx = database.beginTx()) {
-            ids = ids(timeTree.getOrCreateInstants(startTimeInstant, endTimeInstant));
-            tx.success();
-        }
-
-        return ids;
+        return getOrCreateInstants(timeTree, startTimeInstant, endTimeInstant);
     }
 
     @RequestMapping(value = "/{rootNodeId}/single/{time}", method = RequestMethod.GET)
@@ -101,7 +93,12 @@ public class TimeTreeApi {
         TimeInstant timeInstant = TimeInstant.fromValueObject(new TimeInstantVO(time, resolution, timezone));
 
         try (Transaction tx = database.beginTx()) {
-            id = new CustomRootTimeTree(database.getNodeById(rootNodeId)).getOrCreateInstant(timeInstant).getId();
+            CustomRootTimeTree customRootTimeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
+            try {
+                id = customRootTimeTree.getOrCreateInstant(timeInstant).getId();
+            } finally {
+                customRootTimeTree.dispose();
+            }
             tx.success();
         }
 
@@ -118,17 +115,21 @@ public class TimeTreeApi {
             @RequestParam(required = false) String resolution,
             @RequestParam(required = false) String timezone) {
 
-        Long[] ids;
-
         TimeInstant startTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(startTime, resolution, timezone));
         TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
 
+        Node root;
         try (Transaction tx = database.beginTx()) {
-            ids = ids(new CustomRootTimeTree(database.getNodeById(rootNodeId)).getOrCreateInstants(startTimeInstant, endTimeInstant));
+            root = database.getNodeById(rootNodeId);
             tx.success();
         }
 
-        return ids;
+        CustomRootTimeTree customRootTimeTree = new CustomRootTimeTree(root);
+        try {
+            return getOrCreateInstants(customRootTimeTree, startTimeInstant, endTimeInstant);
+        } finally {
+            customRootTimeTree.dispose();
+        }
     }
 
     @RequestMapping(value = "/now", method = RequestMethod.GET)
@@ -151,6 +152,25 @@ public class TimeTreeApi {
         return getInstantWithCustomRoot(rootNodeId, System.currentTimeMillis(), resolution, timezone);
     }
 
+    /**
+     * Get or create all time instants in a range, committing them in batches rather than in a single transaction.
+     *
+     * @param timeTree  to get or create the instants in.
+     * @param startTime start of the range (inclusive).
+     * @param endTime   end of the range (inclusive).
+     * @return IDs of the time instant nodes, ordered chronologically.
+     */
+    private Long[] getOrCreateInstants(TimeTree timeTree, TimeInstant startTime, TimeInstant endTime) {
+        List<Long> ids = new ArrayList<>();
+
+        Iterator<Node> instants = timeTree.iterateOrCreateInstants(startTime, endTime, BATCH_SIZE);
+        while (instants.hasNext()) {
+            ids.add(instants.next().getId());
+        }
+
+        return ids.toArray(new Long[ids.size()]);
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     @ResponseBody
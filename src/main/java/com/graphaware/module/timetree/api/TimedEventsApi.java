@@ -17,7 +17,10 @@
 package com.graphaware.module.timetree.api;
 
 import com.graphaware.module.timetree.*;
+import com.graphaware.module.timetree.domain.Aggregate;
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventPage;
+import com.graphaware.module.timetree.domain.SortOrder;
 import com.graphaware.module.timetree.domain.TimeInstant;
 import org.neo4j.graphdb.*;
 import org.slf4j.Logger;
@@ -39,6 +42,8 @@ public class TimedEventsApi {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimedEventsApi.class);
 
+    static final String CURSOR_HEADER = "X-TimeTree-Cursor";
+
     private final GraphDatabaseService database;
     private final TimedEvents timedEvents;
 
@@ -98,7 +103,12 @@ public class TimedEventsApi {
             @PathVariable long endTime,
             @RequestParam(required = false) String resolution,
             @RequestParam(required = false) String timezone,
-            @RequestParam(required = false) Set<String> relationshipTypes) {
+            @RequestParam(required = false) Set<String> relationshipTypes,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Integer offset,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String order,
+            HttpServletResponse response) {
 
         List<EventVO> events;
 
@@ -106,13 +116,80 @@ public class TimedEventsApi {
         TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
 
         try (Transaction tx = database.beginTx()) {
-            events = convertEvents(timedEvents.getEvents(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes)));
+            events = getEvents(timedEvents, startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes), SortOrder.parse(order), limit, offset, cursor, response);
             tx.success();
         }
 
         return events;
     }
 
+    @RequestMapping(value = "/range/{startTime}/{endTime}/count", method = RequestMethod.GET)
+    @ResponseBody
+    public long countEvents(
+            @PathVariable long startTime,
+            @PathVariable long endTime,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) String timezone,
+            @RequestParam(required = false) Set<String> relationshipTypes) {
+
+        long count;
+
+        TimeInstant startTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(startTime, resolution, timezone));
+        TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
+
+        try (Transaction tx = database.beginTx()) {
+            count = timedEvents.countEvents(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes));
+            tx.success();
+        }
+
+        return count;
+    }
+
+    @RequestMapping(value = "/range/{startTime}/{endTime}/aggregate/{property}", method = RequestMethod.GET)
+    @ResponseBody
+    public Aggregate aggregateEvents(
+            @PathVariable long startTime,
+            @PathVariable long endTime,
+            @PathVariable String property,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) String timezone,
+            @RequestParam(required = false) Set<String> relationshipTypes) {
+
+        Aggregate aggregate;
+
+        TimeInstant startTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(startTime, resolution, timezone));
+        TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
+
+        try (Transaction tx = database.beginTx()) {
+            aggregate = timedEvents.aggregateEvents(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes), property);
+            tx.success();
+        }
+
+        return aggregate;
+    }
+
+    @RequestMapping(value = "/range/{startTime}/{endTime}/histogram", method = RequestMethod.GET)
+    @ResponseBody
+    public SortedMap<Long, Long> getHistogram(
+            @PathVariable long startTime,
+            @PathVariable long endTime,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) String timezone,
+            @RequestParam(required = false) Set<String> relationshipTypes) {
+
+        SortedMap<Long, Long> histogram;
+
+        TimeInstant startTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(startTime, resolution, timezone));
+        TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
+
+        try (Transaction tx = database.beginTx()) {
+            histogram = timedEvents.getHistogram(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes));
+            tx.success();
+        }
+
+        return histogram;
+    }
+
     @RequestMapping(value = "/{rootNodeId}/single/{time}/events", method = RequestMethod.GET)
     @ResponseBody
     public List<EventVO> getEventsCustomRoot(
@@ -128,7 +205,11 @@ public class TimedEventsApi {
 
         try (Transaction tx = database.beginTx()) {
             CustomRootTimeTree timeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
-            events = convertEvents(new TimeTreeBackedEvents(timeTree).getEvents(timeInstant, getRelationshipTypes(relationshipTypes)));
+            try {
+                events = convertEvents(new TimeTreeBackedEvents(timeTree).getEvents(timeInstant, getRelationshipTypes(relationshipTypes)));
+            } finally {
+                timeTree.dispose();
+            }
             tx.success();
         }
 
@@ -143,7 +224,12 @@ public class TimedEventsApi {
             @PathVariable long endTime,
             @RequestParam(required = false) String resolution,
             @RequestParam(required = false) String timezone,
-            @RequestParam(required = false) Set<String> relationshipTypes) {
+            @RequestParam(required = false) Set<String> relationshipTypes,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Integer offset,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String order,
+            HttpServletResponse response) {
 
         List<EventVO> events;
 
@@ -152,13 +238,102 @@ public class TimedEventsApi {
 
         try (Transaction tx = database.beginTx()) {
             CustomRootTimeTree timeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
-            events = convertEvents(new TimeTreeBackedEvents(timeTree).getEvents(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes)));
+            try {
+                events = getEvents(new TimeTreeBackedEvents(timeTree), startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes), SortOrder.parse(order), limit, offset, cursor, response);
+            } finally {
+                timeTree.dispose();
+            }
             tx.success();
         }
 
         return events;
     }
 
+    @RequestMapping(value = "/{rootNodeId}/range/{startTime}/{endTime}/count", method = RequestMethod.GET)
+    @ResponseBody
+    public long countEventsCustomRoot(
+            @PathVariable long rootNodeId,
+            @PathVariable long startTime,
+            @PathVariable long endTime,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) String timezone,
+            @RequestParam(required = false) Set<String> relationshipTypes) {
+
+        long count;
+
+        TimeInstant startTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(startTime, resolution, timezone));
+        TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
+
+        try (Transaction tx = database.beginTx()) {
+            CustomRootTimeTree timeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
+            try {
+                count = new TimeTreeBackedEvents(timeTree).countEvents(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes));
+            } finally {
+                timeTree.dispose();
+            }
+            tx.success();
+        }
+
+        return count;
+    }
+
+    @RequestMapping(value = "/{rootNodeId}/range/{startTime}/{endTime}/aggregate/{property}", method = RequestMethod.GET)
+    @ResponseBody
+    public Aggregate aggregateEventsCustomRoot(
+            @PathVariable long rootNodeId,
+            @PathVariable long startTime,
+            @PathVariable long endTime,
+            @PathVariable String property,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) String timezone,
+            @RequestParam(required = false) Set<String> relationshipTypes) {
+
+        Aggregate aggregate;
+
+        TimeInstant startTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(startTime, resolution, timezone));
+        TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
+
+        try (Transaction tx = database.beginTx()) {
+            CustomRootTimeTree timeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
+            try {
+                aggregate = new TimeTreeBackedEvents(timeTree).aggregateEvents(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes), property);
+            } finally {
+                timeTree.dispose();
+            }
+            tx.success();
+        }
+
+        return aggregate;
+    }
+
+    @RequestMapping(value = "/{rootNodeId}/range/{startTime}/{endTime}/histogram", method = RequestMethod.GET)
+    @ResponseBody
+    public SortedMap<Long, Long> getHistogramCustomRoot(
+            @PathVariable long rootNodeId,
+            @PathVariable long startTime,
+            @PathVariable long endTime,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(required = false) String timezone,
+            @RequestParam(required = false) Set<String> relationshipTypes) {
+
+        SortedMap<Long, Long> histogram;
+
+        TimeInstant startTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(startTime, resolution, timezone));
+        TimeInstant endTimeInstant = TimeInstant.fromValueObject(new TimeInstantVO(endTime, resolution, timezone));
+
+        try (Transaction tx = database.beginTx()) {
+            CustomRootTimeTree timeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
+            try {
+                histogram = new TimeTreeBackedEvents(timeTree).getHistogram(startTimeInstant, endTimeInstant, getRelationshipTypes(relationshipTypes));
+            } finally {
+                timeTree.dispose();
+            }
+            tx.success();
+        }
+
+        return histogram;
+    }
+
     @RequestMapping(value = "{rootNodeId}/single/event", method = RequestMethod.POST)
     @ResponseStatus(HttpStatus.CREATED)
     public void attachEvent(@RequestBody TimedEventVO event, @PathVariable long rootNodeId) {
@@ -167,15 +342,37 @@ public class TimedEventsApi {
         try (Transaction tx = database.beginTx()) {
             Node eventNode = database.getNodeById(event.getEvent().getNodeId());
             CustomRootTimeTree timeTree = new CustomRootTimeTree(database.getNodeById(rootNodeId));
+            try {
+                new TimeTreeBackedEvents(timeTree).attachEvent(
+                        eventNode,
+                        DynamicRelationshipType.withName(event.getEvent().getRelationshipType()),
+                        TimeInstant.fromValueObject(event.getTimeInstant()));
+            } finally {
+                timeTree.dispose();
+            }
+            tx.success();
+        }
 
-            new TimeTreeBackedEvents(timeTree).attachEvent(
-                    eventNode,
-                    DynamicRelationshipType.withName(event.getEvent().getRelationshipType()),
-                    TimeInstant.fromValueObject(event.getTimeInstant()));
+    }
 
-            tx.success();
+    /**
+     * Get events in a range, paged if any of the paging parameters are present. The cursor to fetch the next page with
+     * is returned in the {@link #CURSOR_HEADER} response header, which is absent when there are no more events.
+     */
+    private List<EventVO> getEvents(TimedEvents timedEvents, TimeInstant startTime, TimeInstant endTime, Set<RelationshipType> relationshipTypes, SortOrder order, Integer limit, Integer offset, String cursor, HttpServletResponse response) {
+        if (limit == null && offset == null && cursor == null) {
+            return convertEvents(timedEvents.getEvents(startTime, endTime, relationshipTypes, order));
+        }
+
+        EventPage page = timedEvents.getEvents(startTime, endTime, relationshipTypes, order, cursor,
+                offset == null ? 0 : offset,
+                limit == null ? Integer.MAX_VALUE : limit);
+
+        if (page.hasMore()) {
+            response.setHeader(CURSOR_HEADER, page.getNextCursor());
         }
 
+        return convertEvents(page.getEvents());
     }
 
     private Set<RelationshipType> getRelationshipTypes(Set<String> strings) {
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+/**
+ * Aggregate of a numeric property of events. Aggregates that aren't available, either because there are no events with
+ * a numeric value of the property or because they haven't been rolled up, are <code>null</code>.
+ */
+public class Aggregate {
+
+    public static final Aggregate EMPTY = new Aggregate(0, null, null, null);
+
+    private final long count;
+    private final Double sum;
+    private final Double min;
+    private final Double max;
+
+    /**
+     * Create a new aggregate.
+     *
+     * @param count number of events with a numeric value of the property.
+     * @param sum   of the values, <code>null</code> if not available.
+     * @param min   of the values, <code>null</code> if not available.
+     * @param max   of the values, <code>null</code> if not available.
+     */
+    public Aggregate(long count, Double sum, Double min, Double max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Create an aggregate of a single value.
+     *
+     * @param value of the property.
+     * @return aggregate.
+     */
+    public static Aggregate of(double value) {
+        return new Aggregate(1, value, value, value);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Double getSum() {
+        return sum;
+    }
+
+    public Double getMin() {
+        return min;
+    }
+
+    public Double getMax() {
+        return max;
+    }
+
+    /**
+     * @return average of the values, <code>null</code> if the sum isn't available or there are no values.
+     */
+    public Double getAverage() {
+        if (sum == null || count == 0) {
+            return null;
+        }
+        return sum / count;
+    }
+
+    /**
+     * Combine this aggregate with an aggregate of other events.
+     *
+     * @param other aggregate.
+     * @return combined aggregate.
+     */
+    public Aggregate plus(Aggregate other) {
+        return new Aggregate(count + other.getCount(),
+                sum == null ? other.getSum() : other.getSum() == null ? sum : sum + other.getSum(),
+                min == null ? other.getMin() : other.getMin() == null ? min : Math.min(min, other.getMin()),
+                max == null ? other.getMax() : other.getMax() == null ? max : Math.max(max, other.getMax()));
+    }
+
+    @Override
+    public String toString() {
+        return "Aggregate{count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + '}';
+    }
+}
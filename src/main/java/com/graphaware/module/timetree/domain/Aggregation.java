@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+/**
+ * Aggregate functions of a numeric event property that can be rolled up along the time tree, see {@link Rollup}.
+ */
+public enum Aggregation {
+
+    SUM,
+    MIN,
+    MAX,
+
+    /**
+     * Average, computed from the rolled up sum and count.
+     */
+    AVG;
+
+    /**
+     * Parse an aggregation from its name.
+     *
+     * @param aggregation name of the aggregation (case insensitive).
+     * @return aggregation.
+     * @throws IllegalArgumentException if the aggregation is not recognized.
+     */
+    public static Aggregation parse(String aggregation) {
+        for (Aggregation candidate : values()) {
+            if (candidate.name().equalsIgnoreCase(aggregation.trim())) {
+                return candidate;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown aggregation: " + aggregation + ". Use sum, min, max or avg.");
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+/**
+ * Settings of asynchronous attachment of events by {@link com.graphaware.module.timetree.module.TimeTreeModule}.
+ * Instances are immutable, use the fluent with* methods to change the defaults.
+ */
+public class AsyncAttach {
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 100000;
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushInterval;
+    private final int queueCapacity;
+
+    private AsyncAttach(boolean enabled, int batchSize, long flushInterval, int queueCapacity) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, was " + batchSize);
+        }
+
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("Flush interval must be positive, was " + flushInterval);
+        }
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive, was " + queueCapacity);
+        }
+
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return settings with events attached synchronously, within the transaction that created them.
+     */
+    public static AsyncAttach disabled() {
+        return new AsyncAttach(false, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @return settings with events attached asynchronously, with default batch size, flush interval and queue capacity.
+     */
+    public static AsyncAttach enabled() {
+        return new AsyncAttach(true, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param batchSize maximum number of events attached in a single transaction.
+     * @return new settings.
+     */
+    public AsyncAttach withBatchSize(int batchSize) {
+        return new AsyncAttach(enabled, batchSize, flushInterval, queueCapacity);
+    }
+
+    /**
+     * @param flushInterval maximum time in ms to wait for a batch to fill up before attaching it. It is also the
+     *                      maximum time a committing transaction waits for room in a full queue.
+     * @return new settings.
+     */
+    public AsyncAttach withFlushInterval(long flushInterval) {
+        return new AsyncAttach(enabled, batchSize, flushInterval, queueCapacity);
+    }
+
+    /**
+     * @param queueCapacity maximum number of events waiting to be attached.
+     * @return new settings.
+     */
+    public AsyncAttach withQueueCapacity(int queueCapacity) {
+        return new AsyncAttach(enabled, batchSize, flushInterval, queueCapacity);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        AsyncAttach that = (AsyncAttach) o;
+
+        if (enabled != that.enabled) return false;
+        if (batchSize != that.batchSize) return false;
+        if (flushInterval != that.flushInterval) return false;
+        if (queueCapacity != that.queueCapacity) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (enabled ? 1 : 0);
+        result = 31 * result + batchSize;
+        result = 31 * result + (int) (flushInterval ^ (flushInterval >>> 32));
+        result = 31 * result + queueCapacity;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        if (!enabled) {
+            return "AsyncAttach{disabled}";
+        }
+        return "AsyncAttach{batchSize=" + batchSize + ", flushInterval=" + flushInterval + ", queueCapacity=" + queueCapacity + '}';
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+/**
+ * Result of attaching multiple events to the time tree.
+ */
+public class AttachResult {
+
+    private final long attached;
+    private final long skipped;
+
+    /**
+     * Create a new result.
+     *
+     * @param attached number of events that have been attached.
+     * @param skipped  number of events that have been skipped, because they were already attached.
+     */
+    public AttachResult(long attached, long skipped) {
+        this.attached = attached;
+        this.skipped = skipped;
+    }
+
+    /**
+     * Get the number of events that have been attached.
+     *
+     * @return number of attached events.
+     */
+    public long getAttached() {
+        return attached;
+    }
+
+    /**
+     * Get the number of events that have been skipped, because they were already attached.
+     *
+     * @return number of skipped events.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Combine this result with another one.
+     *
+     * @param other result.
+     * @return combined result.
+     */
+    public AttachResult plus(AttachResult other) {
+        return new AttachResult(attached + other.getAttached(), skipped + other.getSkipped());
+    }
+
+    @Override
+    public String toString() {
+        return "AttachResult{attached=" + attached + ", skipped=" + skipped + '}';
+    }
+}
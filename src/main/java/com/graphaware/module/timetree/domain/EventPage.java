@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+import java.util.List;
+
+/**
+ * A page of events, with a cursor to fetch the next page with.
+ */
+public class EventPage {
+
+    private final List<Event> events;
+    private final String nextCursor;
+
+    /**
+     * Create a new page.
+     *
+     * @param events     on the page.
+     * @param nextCursor cursor to fetch the next page with, <code>null</code> if there are no more events.
+     */
+    public EventPage(List<Event> events, String nextCursor) {
+        this.events = events;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Get the events on this page.
+     *
+     * @return events, ordered the same way as the query the page belongs to.
+     */
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * Get an opaque cursor, from which the next page of the same query can be fetched.
+     *
+     * @return cursor, <code>null</code> if there are no more events.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return <code>true</code> iff there are more events after this page.
+     */
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
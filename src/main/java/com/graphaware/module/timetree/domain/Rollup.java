@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+import java.util.*;
+
+/**
+ * Definition of the aggregates of numeric event properties rolled up along the time tree, e.g.
+ * <code>amount:sum,max</code>. Multiple properties are separated by semicolons, e.g.
+ * <code>amount:sum,max;duration:avg</code>. An empty definition means no rollups.
+ * <p/>
+ * The number of events with a numeric value of each property is always rolled up, since the other aggregates depend
+ * on it.
+ */
+public class Rollup {
+
+    private final Map<String, Set<Aggregation>> aggregations = new TreeMap<>();
+
+    /**
+     * Create a rollup from its definition.
+     *
+     * @param definition of the rollup, e.g. <code>amount:sum,max</code>.
+     * @throws IllegalArgumentException if the definition is malformed.
+     */
+    public Rollup(String definition) {
+        for (String propertyDefinition : definition.split(";")) {
+            if (propertyDefinition.trim().isEmpty()) {
+                continue;
+            }
+
+            String[] split = propertyDefinition.split(":");
+            if (split.length != 2 || split[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("Invalid rollup definition: " + propertyDefinition + ". Use property:aggregation,aggregation");
+            }
+
+            Set<Aggregation> propertyAggregations = EnumSet.noneOf(Aggregation.class);
+            for (String aggregation : split[1].split(",")) {
+                propertyAggregations.add(Aggregation.parse(aggregation));
+            }
+
+            aggregations.put(split[0].trim(), propertyAggregations);
+        }
+    }
+
+    /**
+     * @return true iff at least one property is rolled up.
+     */
+    public boolean isDefined() {
+        return !aggregations.isEmpty();
+    }
+
+    /**
+     * @return names of the rolled up properties, in alphabetical order.
+     */
+    public Set<String> getProperties() {
+        return Collections.unmodifiableSet(aggregations.keySet());
+    }
+
+    /**
+     * @param property name of the property.
+     * @return aggregations rolled up for the property, empty if the property isn't rolled up.
+     */
+    public Set<Aggregation> getAggregations(String property) {
+        Set<Aggregation> result = aggregations.get(property);
+        return result == null ? EnumSet.noneOf(Aggregation.class) : Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * @param property name of the property.
+     * @return true iff the sum of the property is rolled up, which is the case for {@link Aggregation#SUM} and
+     *         {@link Aggregation#AVG}.
+     */
+    public boolean hasSum(String property) {
+        Set<Aggregation> propertyAggregations = getAggregations(property);
+        return propertyAggregations.contains(Aggregation.SUM) || propertyAggregations.contains(Aggregation.AVG);
+    }
+
+    /**
+     * @return normalized definition of this rollup, with properties and aggregations in a stable order.
+     */
+    public String getDefinition() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Set<Aggregation>> entry : aggregations.entrySet()) {
+            if (result.length() > 0) {
+                result.append(";");
+            }
+            result.append(entry.getKey()).append(":");
+
+            boolean first = true;
+            for (Aggregation aggregation : entry.getValue()) {
+                if (!first) {
+                    result.append(",");
+                }
+                result.append(aggregation.name().toLowerCase());
+                first = false;
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getDefinition();
+    }
+}
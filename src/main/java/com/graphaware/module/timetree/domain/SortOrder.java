@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+/**
+ * Order in which time instants and events are traversed.
+ */
+public enum SortOrder {
+
+    /**
+     * Oldest first.
+     */
+    ASCENDING,
+
+    /**
+     * Newest first.
+     */
+    DESCENDING;
+
+    /**
+     * Parse a sort order from a request parameter.
+     *
+     * @param order "asc" or "desc" (case insensitive), <code>null</code> for {@link #ASCENDING}.
+     * @return sort order.
+     * @throws IllegalArgumentException if the order is not recognized.
+     */
+    public static SortOrder parse(String order) {
+        if (order == null || "asc".equalsIgnoreCase(order)) {
+            return ASCENDING;
+        }
+
+        if ("desc".equalsIgnoreCase(order)) {
+            return DESCENDING;
+        }
+
+        throw new IllegalArgumentException("Unknown order: " + order + ". Use asc or desc.");
+    }
+}
@@ -90,6 +90,18 @@ public class TimeInstant {
         return new TimeInstant(time.getMillis(), getTimezone(), getResolution());
     }
 
+    /**
+     * Create a new time instant from this time instant with its time truncated to the beginning of the unit of its
+     * resolution (in its time zone). All time instants represented by the same time tree node truncate to the same time.
+     *
+     * @return truncated instant.
+     */
+    public TimeInstant truncate() {
+        long truncated = new DateTime(getTime(), getTimezone()).property(getResolution().getDateTimeFieldType()).roundFloorCopy().getMillis();
+
+        return new TimeInstant(truncated, getTimezone(), getResolution());
+    }
+
     private TimeInstant(long time, DateTimeZone timezone, Resolution resolution) {
         this.time = time;
         this.timezone = timezone;
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.domain;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * An {@link Event} together with the {@link TimeInstant} it should be attached to.
+ */
+public class TimedEvent extends Event {
+
+    private final TimeInstant timeInstant;
+
+    /**
+     * Create a new timed event.
+     *
+     * @param node             representing the event.
+     * @param relationshipType to use when attaching the event to the time tree.
+     * @param timeInstant      to attach the event to.
+     */
+    public TimedEvent(Node node, RelationshipType relationshipType, TimeInstant timeInstant) {
+        super(node, relationshipType);
+        this.timeInstant = timeInstant;
+    }
+
+    /**
+     * Get the time instant the event should be attached to.
+     *
+     * @return time instant.
+     */
+    public TimeInstant getTimeInstant() {
+        return timeInstant;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.module;
+
+import com.graphaware.module.timetree.domain.AsyncAttach;
+import org.neo4j.graphdb.*;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Background worker attaching events to time trees on behalf of {@link TimeTreeModule}, after the transactions that
+ * created or changed them have committed.
+ * <p/>
+ * Events waiting to be attached carry the {@link #PENDING} label, which is added by the committing transaction itself,
+ * and their IDs are put on a bounded queue. The worker drains the queue in batches, each attached in a single
+ * transaction with the events sorted by time, so that events belonging to the same time instant are attached together.
+ * <p/>
+ * The label is what makes the pipeline crash-safe: when the queue is full, or the database stopped before the queue was
+ * drained, the pending events are found by their label and attached when the worker catches up, which it does whenever
+ * it starts.
+ */
+class AsyncAttacher implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncAttacher.class);
+
+    static final Label PENDING = DynamicLabel.label("TimeTreePending");
+
+    private static final int MAX_BATCH_ATTEMPTS = 10;
+    private static final long STOP_TIMEOUT = 10000;
+
+    private final String name;
+    private final GraphDatabaseService database;
+    private final TimeTreeModule module;
+    private final AsyncAttach settings;
+    private final BlockingQueue<Long> queue;
+    private final AtomicBoolean catchUpNeeded = new AtomicBoolean(true);
+
+    private volatile Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Create a new worker. It isn't started until {@link #start()} is called.
+     *
+     * @param name     of the worker's thread.
+     * @param database to attach events in.
+     * @param module   attaching the events.
+     * @param settings of the worker.
+     */
+    AsyncAttacher(String name, GraphDatabaseService database, TimeTreeModule module, AsyncAttach settings) {
+        this.name = name;
+        this.database = database;
+        this.module = module;
+        this.settings = settings;
+        this.queue = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+    }
+
+    /**
+     * Start the worker, unless it is already running.
+     */
+    void start() {
+        if (running) {
+            return;
+        }
+
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+
+            running = true;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the worker and wait for it to finish the batch it is attaching. Events still in the queue remain pending and
+     * are attached when a worker starts again.
+     */
+    synchronized void stop() {
+        running = false;
+
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+        try {
+            thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Put committed pending events on the queue. If the queue is full, the calling thread waits for up to the flush
+     * interval for room to become available. Events that don't fit are left for the worker to catch up with.
+     *
+     * @param ids of the pending events.
+     */
+    void enqueue(Collection<Long> ids) {
+        try {
+            for (Long id : ids) {
+                if (!queue.offer(id, settings.getFlushInterval(), TimeUnit.MILLISECONDS)) {
+                    LOG.warn("Queue of events to be attached to TimeTree is full, pending events will be attached later");
+                    catchUpNeeded.set(true);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            catchUpNeeded.set(true);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (catchUpNeeded.getAndSet(false)) {
+                    catchUp();
+                }
+
+                List<Long> batch = nextBatch();
+                if (!batch.isEmpty()) {
+                    attach(batch);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                LOG.error("Failed to attach events to TimeTree, will retry", e);
+                catchUpNeeded.set(true);
+                if (!pause()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the next batch of events from the queue, waiting for at most the flush interval for it to fill up.
+     *
+     * @return IDs of the events, empty if none arrived within the flush interval.
+     * @throws InterruptedException if the worker is being stopped.
+     */
+    private List<Long> nextBatch() throws InterruptedException {
+        List<Long> batch = new ArrayList<>();
+
+        Long first = queue.poll(settings.getFlushInterval(), TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+
+        long deadline = System.currentTimeMillis() + settings.getFlushInterval();
+        while (batch.size() < settings.getBatchSize()) {
+            queue.drainTo(batch, settings.getBatchSize() - batch.size());
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (batch.size() >= settings.getBatchSize() || remaining <= 0) {
+                break;
+            }
+
+            Long next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+
+        return batch;
+    }
+
+    /**
+     * Attach all events carrying the {@link #PENDING} label, in batches.
+     */
+    private void catchUp() {
+        List<Long> pending = new ArrayList<>();
+        try (Transaction tx = database.beginTx()) {
+            try (ResourceIterator<Node> nodes = database.findNodes(PENDING)) {
+                while (nodes.hasNext()) {
+                    pending.add(nodes.next().getId());
+                }
+            }
+            tx.success();
+        }
+
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        LOG.info("Attaching " + pending.size() + " pending events to TimeTree");
+
+        for (int from = 0; from < pending.size() && running; from += settings.getBatchSize()) {
+            attach(pending.subList(from, Math.min(from + settings.getBatchSize(), pending.size())));
+        }
+    }
+
+    private void attach(List<Long> ids) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                attachBatch(ids);
+                return;
+            } catch (DeadlockDetectedException e) {
+                if (attempt >= MAX_BATCH_ATTEMPTS) {
+                    throw e;
+                }
+                LOG.warn("Deadlock detected while attaching a batch of events, retrying (attempt " + attempt + ")");
+            }
+        }
+    }
+
+    /**
+     * Attach a batch of events in a single transaction. Events that have been deleted or already attached in the
+     * meantime are skipped.
+     *
+     * @param ids of the events.
+     */
+    private void attachBatch(List<Long> ids) {
+        Set<Long> detachedFrom;
+        try (Transaction tx = database.beginTx()) {
+            List<Node> events = new ArrayList<>();
+            Set<Long> seen = new HashSet<>();
+            for (Long id : ids) {
+                if (!seen.add(id)) {
+                    continue;
+                }
+
+                Node event;
+                try {
+                    event = database.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue;
+                }
+
+                if (event.hasLabel(PENDING)) {
+                    events.add(event);
+                }
+            }
+
+            Collections.sort(events, new Comparator<Node>() {
+                @Override
+                public int compare(Node e1, Node e2) {
+                    return Long.compare(module.timestamp(e1), module.timestamp(e2));
+                }
+            });
+
+            detachedFrom = module.attach(events);
+            for (Node event : events) {
+                event.removeLabel(PENDING);
+            }
+
+            tx.success();
+        }
+
+        if (!detachedFrom.isEmpty()) {
+            //separately, so that event counters and rollups are updated before the instants are removed
+            try (Transaction tx = database.beginTx()) {
+                module.removeEmptyInstants(detachedFrom);
+                tx.success();
+            }
+        }
+    }
+
+    /**
+     * Wait for the flush interval before retrying after a failure.
+     *
+     * @return <code>false</code> iff the worker is being stopped.
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep(settings.getFlushInterval());
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree.module;
+
+import com.graphaware.module.timetree.CustomRootTimeTree;
+import org.neo4j.graphdb.Node;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded, least-recently-used caches used by {@link TimeTreeModule} to attach events to trees with custom roots:
+ * <ul>
+ * <li>{@link CustomRootTimeTree}s keyed by the ID of their root, so that a single tree (with its warm instant cache) is
+ * used per root, instead of a new one per event. Trees evicted from the cache are disposed of.</li>
+ * <li>IDs of dynamic roots keyed by the value of the property identifying them, so that a root doesn't have to be
+ * looked up for every event. The roots are only referred to by ID, so entries must be validated by the caller.</li>
+ * </ul>
+ * This class is thread-safe.
+ */
+class CustomRootTrees {
+
+    private final Map<Long, CustomRootTimeTree> trees;
+    private final Map<Object, Long> dynamicRoots;
+
+    /**
+     * Create new caches.
+     *
+     * @param treeCapacity        maximum number of trees held by the cache.
+     * @param dynamicRootCapacity maximum number of dynamic root IDs held by the cache.
+     */
+    CustomRootTrees(final int treeCapacity, final int dynamicRootCapacity) {
+        trees = new LinkedHashMap<Long, CustomRootTimeTree>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CustomRootTimeTree> eldest) {
+                if (size() > treeCapacity) {
+                    eldest.getValue().dispose();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        dynamicRoots = new LinkedHashMap<Object, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+                return size() > dynamicRootCapacity;
+            }
+        };
+    }
+
+    /**
+     * Get the tree with the given root, creating it if it isn't cached.
+     *
+     * @param root of the tree, must exist.
+     * @return tree.
+     */
+    synchronized CustomRootTimeTree getTree(Node root) {
+        CustomRootTimeTree tree = trees.get(root.getId());
+        if (tree == null) {
+            tree = new CustomRootTimeTree(root);
+            trees.put(root.getId(), tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Get the ID of the dynamic root identified by the given value.
+     *
+     * @param value of the property identifying the root.
+     * @return root ID, <code>null</code> if not cached.
+     */
+    synchronized Long getDynamicRootId(Object value) {
+        return dynamicRoots.get(value);
+    }
+
+    /**
+     * Cache the ID of the dynamic root identified by the given value. Array values aren't cached, since they don't
+     * have value semantics.
+     *
+     * @param value  of the property identifying the root.
+     * @param rootId ID of the root.
+     */
+    synchronized void putDynamicRootId(Object value, long rootId) {
+        if (!value.getClass().isArray()) {
+            dynamicRoots.put(value, rootId);
+        }
+    }
+
+    /**
+     * Remove the ID of the dynamic root identified by the given value, e.g. when it turned out to be no longer valid.
+     *
+     * @param value of the property identifying the root.
+     */
+    synchronized void invalidateDynamicRoot(Object value) {
+        dynamicRoots.remove(value);
+    }
+
+    /**
+     * Remove all entries, disposing of all the trees.
+     */
+    void clear() {
+        List<CustomRootTimeTree> toDispose;
+        synchronized (this) {
+            toDispose = new ArrayList<>(trees.values());
+            trees.clear();
+            dynamicRoots.clear();
+        }
+
+        for (CustomRootTimeTree tree : toDispose) {
+            tree.dispose();
+        }
+    }
+}
@@ -18,9 +18,11 @@ package com.graphaware.module.timetree.module;
 import com.graphaware.common.policy.InclusionPolicies;
 import com.graphaware.common.policy.fluent.IncludeNodes;
 import com.graphaware.common.policy.fluent.IncludeRelationships;
+import com.graphaware.module.timetree.domain.AsyncAttach;
 import com.graphaware.module.timetree.domain.DynamicRoot;
 import com.graphaware.module.timetree.domain.InitializeLabelsRestriction;
 import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.Rollup;
 import com.graphaware.runtime.config.BaseTxDrivenModuleConfiguration;
 import com.graphaware.runtime.policy.InclusionPoliciesFactory;
 import org.joda.time.DateTimeZone;
@@ -45,6 +47,10 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
     private static final boolean DEFAULT_AUTO_ATTACH = false;
     private static final DynamicRoot DEFAULT_DYNAMIC_ROOT = new DynamicRoot("");
     private static final InitializeLabelsRestriction DEFAULT_LABELS_RESTRICTION = new InitializeLabelsRestriction("");
+    private static final boolean DEFAULT_EVENT_COUNTERS = false;
+    private static final Rollup DEFAULT_ROLLUP = new Rollup("");
+    private static final AsyncAttach DEFAULT_ASYNC_ATTACH = AsyncAttach.disabled();
+    private static final boolean DEFAULT_REMOVE_EMPTY_INSTANTS = false;
 
     private static final InclusionPolicies DEFAULT_INCLUSION_POLICIES =
             InclusionPoliciesFactory.allBusiness()
@@ -59,6 +65,10 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
     private boolean autoAttach;
     private DynamicRoot dynamicRoot;
     private InitializeLabelsRestriction initializeLabelsRestriction;
+    private boolean eventCounters;
+    private Rollup rollup;
+    private AsyncAttach asyncAttach;
+    private boolean removeEmptyInstants;
 
     /**
      * Create a new configuration.
@@ -73,11 +83,20 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @param timeZone                   time zone which is used for representing timestamps in the tree.
      * @param relationshipType           with which the events are attached to the tree.
      * @param autoAttach                 <code>true</code> iff events should be automatically attached upon first module run and when config changes.
+     * @param eventCounters              <code>true</code> iff the number of events attached with the relationship type should be
+     *                                   maintained on each time instant, see {@link com.graphaware.module.timetree.EventCounters}.
+     * @param rollup                     aggregates of numeric properties of events attached with the relationship type to be
+     *                                   maintained on each time instant, see {@link com.graphaware.module.timetree.EventRollups}.
+     * @param asyncAttach                settings of attaching events asynchronously, after the transactions that created
+     *                                   or changed them have committed.
+     * @param removeEmptyInstants        <code>true</code> iff time instants left without events after an event has been
+     *                                   moved to another time instant should be removed from the tree.
      */
     protected TimeTreeConfiguration(InclusionPolicies inclusionPolicies, String timestampProperty,
                                     String customTimeTreeRootProperty, Resolution resolution, DateTimeZone timeZone,
                                     RelationshipType relationshipType, boolean autoAttach, DynamicRoot dynamicRoot,
-                                    InitializeLabelsRestriction initializeLabelsRestriction) {
+                                    InitializeLabelsRestriction initializeLabelsRestriction, boolean eventCounters,
+                                    Rollup rollup, AsyncAttach asyncAttach, boolean removeEmptyInstants) {
         super(inclusionPolicies);
         this.timestampProperty = timestampProperty;
         this.customTimeTreeRootProperty = customTimeTreeRootProperty;
@@ -87,6 +106,10 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         this.autoAttach = autoAttach;
         this.dynamicRoot = dynamicRoot;
         this.initializeLabelsRestriction = initializeLabelsRestriction;
+        this.eventCounters = eventCounters;
+        this.rollup = rollup;
+        this.asyncAttach = asyncAttach;
+        this.removeEmptyInstants = removeEmptyInstants;
     }
 
     /**
@@ -95,15 +118,19 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * default timestamp property = {@link #DEFAULT_TIMESTAMP_PROPERTY},
      * default customTimeTree root property = {@link #DEFAULT_CUSTOM_TIMETREE_ROOT_PROPERTY},
      * default resolution = {@link #DEFAULT_RESOLUTION},
-     * default time zone = {@link #DEFAULT_TIME_ZONE}, and
-     * default relationship type = {@link #DEFAULT_RELATIONSHIP_TYPE}
+     * default time zone = {@link #DEFAULT_TIME_ZONE},
+     * default relationship type = {@link #DEFAULT_RELATIONSHIP_TYPE},
+     * default event counters = {@link #DEFAULT_EVENT_COUNTERS},
+     * default rollup = {@link #DEFAULT_ROLLUP} (none),
+     * default async attach = {@link #DEFAULT_ASYNC_ATTACH} (disabled), and
+     * default remove empty instants = {@link #DEFAULT_REMOVE_EMPTY_INSTANTS}
      * <p/>
      * Change the configuration by using the fluent with* methods.
      *
      * @return default config.
      */
     public static TimeTreeConfiguration defaultConfiguration() {
-        return new TimeTreeConfiguration(DEFAULT_INCLUSION_POLICIES, DEFAULT_TIMESTAMP_PROPERTY, DEFAULT_CUSTOM_TIMETREE_ROOT_PROPERTY, DEFAULT_RESOLUTION, DEFAULT_TIME_ZONE, DEFAULT_RELATIONSHIP_TYPE, DEFAULT_AUTO_ATTACH, DEFAULT_DYNAMIC_ROOT, DEFAULT_LABELS_RESTRICTION);
+        return new TimeTreeConfiguration(DEFAULT_INCLUSION_POLICIES, DEFAULT_TIMESTAMP_PROPERTY, DEFAULT_CUSTOM_TIMETREE_ROOT_PROPERTY, DEFAULT_RESOLUTION, DEFAULT_TIME_ZONE, DEFAULT_RELATIONSHIP_TYPE, DEFAULT_AUTO_ATTACH, DEFAULT_DYNAMIC_ROOT, DEFAULT_LABELS_RESTRICTION, DEFAULT_EVENT_COUNTERS, DEFAULT_ROLLUP, DEFAULT_ASYNC_ATTACH, DEFAULT_REMOVE_EMPTY_INSTANTS);
     }
 
     /**
@@ -113,7 +140,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withTimestampProperty(final String timestampProperty) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), timestampProperty, getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction());
+        return new TimeTreeConfiguration(getInclusionPolicies(), timestampProperty, getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
     /**
@@ -123,7 +150,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance
      */
     public TimeTreeConfiguration withCustomTimeTreeRootProperty(final String customTimeTreeRootProperty) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), customTimeTreeRootProperty, getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction());
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), customTimeTreeRootProperty, getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
     /**
@@ -133,7 +160,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withResolution(Resolution resolution) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), resolution, getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction());
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), resolution, getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
     /**
@@ -143,7 +170,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withTimeZone(DateTimeZone timeZone) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), timeZone, getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction());
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), timeZone, getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
     /**
@@ -153,7 +180,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withRelationshipType(final RelationshipType relationshipType) {
-        return new TimeTreeConfiguration(getInclusionPolicies().with(IncludeRelationships.all().with(relationshipType)), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), relationshipType, isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction());
+        return new TimeTreeConfiguration(getInclusionPolicies().with(IncludeRelationships.all().with(relationshipType)), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), relationshipType, isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
     /**
@@ -163,17 +190,58 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
      * @return new instance.
      */
     public TimeTreeConfiguration withAutoAttach(final boolean autoAttach) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), autoAttach, getDynamicRoot(), getInitializeLabelsRestriction());
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), autoAttach, getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
     public TimeTreeConfiguration withDynamicRoot(final DynamicRoot dynamicRoot) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), dynamicRoot, getInitializeLabelsRestriction());
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), dynamicRoot, getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
     public TimeTreeConfiguration withInitializeLabelsRestriction(final InitializeLabelsRestriction initializeLabelsRestriction) {
-        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), autoAttach, getDynamicRoot(), initializeLabelsRestriction);
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), autoAttach, getDynamicRoot(), initializeLabelsRestriction, hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different setting for maintaining event counters.
+     *
+     * @param eventCounters of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withEventCounters(final boolean eventCounters) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), eventCounters, getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different rolled up aggregates.
+     *
+     * @param rollup of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withRollup(final Rollup rollup) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), rollup, getAsyncAttach(), isRemoveEmptyInstants());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different settings for attaching events
+     * asynchronously.
+     *
+     * @param asyncAttach of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withAsyncAttach(final AsyncAttach asyncAttach) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), asyncAttach, isRemoveEmptyInstants());
+    }
+
+    /**
+     * Create a new instance of this {@link TimeTreeConfiguration} with different setting of removing time instants left
+     * without events when events are moved.
+     *
+     * @param removeEmptyInstants of the new instance.
+     * @return new instance.
+     */
+    public TimeTreeConfiguration withRemoveEmptyInstants(final boolean removeEmptyInstants) {
+        return new TimeTreeConfiguration(getInclusionPolicies(), getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), removeEmptyInstants);
+    }
 
     /**
      * {@inheritDoc}
@@ -182,7 +250,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
     protected TimeTreeConfiguration newInstance(InclusionPolicies inclusionPolicies) {
         return new TimeTreeConfiguration(inclusionPolicies
                 .with(IncludeRelationships.all().with(getRelationshipType())),
-                getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction());
+                getTimestampProperty(), getCustomTimeTreeRootProperty(), getResolution(), getTimeZone(), getRelationshipType(), isAutoAttach(), getDynamicRoot(), getInitializeLabelsRestriction(), hasEventCounters(), getRollup(), getAsyncAttach(), isRemoveEmptyInstants());
     }
 
     public String getTimestampProperty() {
@@ -213,6 +281,22 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
 
     public InitializeLabelsRestriction getInitializeLabelsRestriction() { return initializeLabelsRestriction; }
 
+    public boolean hasEventCounters() {
+        return eventCounters;
+    }
+
+    public Rollup getRollup() {
+        return rollup;
+    }
+
+    public AsyncAttach getAsyncAttach() {
+        return asyncAttach;
+    }
+
+    public boolean isRemoveEmptyInstants() {
+        return removeEmptyInstants;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -225,6 +309,7 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         TimeTreeConfiguration that = (TimeTreeConfiguration) o;
 
         if (autoAttach != that.autoAttach) return false;
+        if (eventCounters != that.eventCounters) return false;
         if (!relationshipType.name().equals(that.relationshipType.name())) return false;
         if (resolution != that.resolution) return false;
         if (!timeZone.equals(that.timeZone)) return false;
@@ -232,6 +317,9 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         if (!customTimeTreeRootProperty.equals(that.customTimeTreeRootProperty)) return false;
         if (!dynamicRoot.getDefinition().equals(that.dynamicRoot.getDefinition())) {return false;}
         if (!initializeLabelsRestriction.toString().equals(that.initializeLabelsRestriction.toString())) {return false;}
+        if (!rollup.getDefinition().equals(that.rollup.getDefinition())) return false;
+        if (!asyncAttach.equals(that.asyncAttach)) return false;
+        if (removeEmptyInstants != that.removeEmptyInstants) return false;
 
         return true;
     }
@@ -250,6 +338,10 @@ public class TimeTreeConfiguration extends BaseTxDrivenModuleConfiguration<TimeT
         result = 31 * result + (autoAttach ? 1 : 0);
         result = 31 * result + dynamicRoot.getDefinition().hashCode();
         result = 31 * result + initializeLabelsRestriction.toString().hashCode();
+        result = 31 * result + (eventCounters ? 1 : 0);
+        result = 31 * result + rollup.getDefinition().hashCode();
+        result = 31 * result + asyncAttach.hashCode();
+        result = 31 * result + (removeEmptyInstants ? 1 : 0);
         return result;
     }
 }
@@ -16,11 +16,10 @@
 
 package com.graphaware.module.timetree.module;
 
-import com.graphaware.module.timetree.CustomRootTimeTree;
-import com.graphaware.module.timetree.SingleTimeTree;
-import com.graphaware.module.timetree.TimeTreeBackedEvents;
-import com.graphaware.module.timetree.TimedEvents;
+import com.graphaware.module.timetree.*;
 import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimeTreeLabels;
+import com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes;
 import com.graphaware.runtime.config.TxDrivenModuleConfiguration;
 import com.graphaware.runtime.module.BaseTxDrivenModule;
 import com.graphaware.runtime.module.DeliberateTransactionRollbackException;
@@ -32,25 +31,47 @@ import com.graphaware.tx.executor.batch.UnitOfWork;
 import com.graphaware.tx.executor.input.TransactionalInput;
 import com.graphaware.tx.executor.single.TransactionCallback;
 import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.IndexDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.*;
+
 import static com.graphaware.common.util.PropertyContainerUtils.getLong;
 
 /**
  * A {@link com.graphaware.runtime.module.TxDrivenModule} that automatically attaches events to a {@link com.graphaware.module.timetree.TimeTree}.
+ * <p/>
+ * Events are attached within the transaction that created or changed them, unless asynchronous attach is enabled, in
+ * which case they are attached by a background {@link AsyncAttacher} after the transaction has committed. The state
+ * passed from {@link #beforeCommit(ImprovedTransactionData)} to {@link #afterCommit(Set)} is the set of IDs of events
+ * waiting to be attached, <code>null</code> if there are none.
  */
-public class TimeTreeModule extends BaseTxDrivenModule<Void> {
+public class TimeTreeModule extends BaseTxDrivenModule<Set<Long>> {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimeTreeModule.class);
 
+    private static final Set<String> TIME_TREE_RELATIONSHIPS = new HashSet<>(TimeTreeRelationshipTypes.getTimeTreeRelationshipNames());
+    private static final int CUSTOM_ROOT_TREE_CACHE_SIZE = 1000;
+    private static final int DYNAMIC_ROOT_CACHE_SIZE = 10000;
+
     private final TimeTreeConfiguration configuration;
-    private final TimedEvents timedEvents;
+    private final GraphDatabaseService database;
+    private final TimeTree timeTree;
+    private final CustomRootTrees customRootTrees = new CustomRootTrees(CUSTOM_ROOT_TREE_CACHE_SIZE, DYNAMIC_ROOT_CACHE_SIZE);
+    private final AsyncAttacher asyncAttacher;
 
     public TimeTreeModule(String moduleId, TimeTreeConfiguration configuration, GraphDatabaseService database) {
         super(moduleId);
         this.configuration = configuration;
-        this.timedEvents = new TimeTreeBackedEvents(new SingleTimeTree(database));
+        this.database = database;
+        this.timeTree = new SingleTimeTree(database);
+
+        if (configuration.getAsyncAttach().isEnabled()) {
+            this.asyncAttacher = new AsyncAttacher("TimeTree-" + moduleId + "-AsyncAttach", database, this, configuration.getAsyncAttach());
+        } else {
+            this.asyncAttacher = null;
+        }
     }
 
     /**
@@ -65,9 +86,40 @@ public class TimeTreeModule extends BaseTxDrivenModule<Void> {
      * {@inheritDoc}
      */
     @Override
-    public Void beforeCommit(ImprovedTransactionData transactionData) throws DeliberateTransactionRollbackException {
+    public Set<Long> beforeCommit(ImprovedTransactionData transactionData) throws DeliberateTransactionRollbackException {
+        if (asyncAttacher != null) {
+            //started lazily, so that it doesn't compete with initialization
+            asyncAttacher.start();
+        }
+
+        EventCounters counters = null;
+        if (configuration.hasEventCounters()) {
+            counters = new EventCounters(Collections.singleton(configuration.getRelationshipType()));
+        }
+
+        EventRollups rollups = null;
+        if (configuration.getRollup().isDefined()) {
+            rollups = new EventRollups(configuration.getRollup(), configuration.getRelationshipType());
+        }
+
+        if (counters != null || rollups != null) {
+            recordAttachedAndDetachedEvents(transactionData, counters, rollups);
+        }
+
+        Set<Long> pending = null;
+        if (asyncAttacher != null) {
+            pending = new HashSet<>();
+        }
+
+        List<Node> toAttach = new ArrayList<>();
+        Set<Long> detachedFrom = configuration.isRemoveEmptyInstants() ? new HashSet<Long>() : null;
+
         for (Node created : transactionData.getAllCreatedNodes()) {
-            createTimeTreeRelationship(created);
+            if (pending != null && created.hasProperty(configuration.getTimestampProperty())) {
+                markPending(created, pending);
+            } else {
+                toAttach.add(created);
+            }
         }
 
         for (Change<Node> change : transactionData.getAllChangedNodes()) {
@@ -76,23 +128,196 @@ public class TimeTreeModule extends BaseTxDrivenModule<Void> {
                     || transactionData.hasPropertyBeenDeleted(change.getPrevious(), configuration.getTimestampProperty())
                     || transactionData.hasPropertyBeenDeleted(change.getPrevious(), configuration.getCustomTimeTreeRootProperty())) {
 
-                deleteTimeTreeRelationship(change.getPrevious());
-                createTimeTreeRelationship(change.getCurrent());
+                if (isAttachmentUnchanged(change)) {
+                    //still belongs to the same time instant of the same tree, nothing to move
+                    if (rollups != null) {
+                        recordChangedValues(transactionData, change, rollups);
+                    }
+                } else {
+                    //detached right away even when attached asynchronously, since only this transaction knows the
+                    //previous values of the event, which have to be subtracted from the rollups
+                    deleteTimeTreeRelationship(change.getPrevious(), counters, rollups, detachedFrom);
+
+                    if (pending != null) {
+                        markPending(change.getCurrent(), pending);
+                    } else {
+                        toAttach.add(change.getCurrent());
+                    }
+                }
+            } else if (rollups != null) {
+                recordChangedValues(transactionData, change, rollups);
             }
         }
 
-        return null;
+        createTimeTreeRelationships(toAttach, counters, rollups);
+
+        if (counters != null) {
+            counters.apply();
+        }
+
+        if (rollups != null) {
+            rollups.apply();
+        }
+
+        if (detachedFrom != null) {
+            //only after the counters and rollups have been applied to the instants and their ancestors
+            removeEmptyInstants(detachedFrom);
+        }
+
+        return pending == null || pending.isEmpty() ? null : pending;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void initialize(final GraphDatabaseService database) {
-        if (!configuration.isAutoAttach() || !configuration.getInitializeLabelsRestriction().hasLabelsRestriction()) {
+    public void afterCommit(Set<Long> pending) {
+        if (pending != null) {
+            asyncAttacher.enqueue(pending);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        if (asyncAttacher != null) {
+            asyncAttacher.stop();
+        }
+
+        customRootTrees.clear();
+    }
+
+    /**
+     * Mark an event to be attached asynchronously. The label survives a restart, so the event is attached even if the
+     * database stops before the queue is drained.
+     *
+     * @param event   to mark.
+     * @param pending IDs of events to be attached after the transaction commits, to which the event's ID is added.
+     */
+    private void markPending(Node event, Set<Long> pending) {
+        event.addLabel(AsyncAttacher.PENDING);
+        pending.add(event.getId());
+    }
+
+    /**
+     * Attach events to their time trees, replacing any existing attachments. Used by the {@link AsyncAttacher}; event
+     * counters and rollups are updated when its transaction commits, since the relationships are visible to this module
+     * like any others.
+     *
+     * @param events to attach.
+     * @return IDs of the time instants the events have been detached from, to be passed to
+     * {@link #removeEmptyInstants(Collection)} in a separate transaction. Empty if empty instants aren't removed.
+     */
+    Set<Long> attach(List<Node> events) {
+        Set<Long> detachedFrom = new HashSet<>();
+        for (Node event : events) {
+            deleteTimeTreeRelationship(event, null, null, configuration.isRemoveEmptyInstants() ? detachedFrom : null);
+        }
+        createTimeTreeRelationships(events, null, null);
+        return detachedFrom;
+    }
+
+    /**
+     * @param event node.
+     * @return value of the event's timestamp property, {@link Long#MIN_VALUE} if missing or not a long.
+     */
+    long timestamp(Node event) {
+        Object timestamp = event.getProperty(configuration.getTimestampProperty(), null);
+        return timestamp instanceof Long ? (Long) timestamp : Long.MIN_VALUE;
+    }
+
+    /**
+     * Record events attached to and detached from time instants by the transaction itself, i.e. not by this module.
+     *
+     * @param transactionData data about the transaction.
+     * @param counters        to record the changes in, <code>null</code> if not maintained.
+     * @param rollups         to record the changes in, <code>null</code> if not maintained.
+     */
+    private void recordAttachedAndDetachedEvents(ImprovedTransactionData transactionData, EventCounters counters, EventRollups rollups) {
+        for (Relationship created : transactionData.getAllCreatedRelationships()) {
+            Node instant = database.getNodeById(created.getEndNode().getId());
+            if (counters != null) {
+                counters.record(instant, created.getType(), 1);
+            }
+            if (rollups != null) {
+                rollups.attached(instant, created.getStartNode(), created.getType());
+            }
+        }
+
+        for (Relationship deleted : transactionData.getAllDeletedRelationships()) {
+            if (transactionData.hasBeenDeleted(deleted.getEndNode())) {
+                //the time instant itself has been removed, its ancestors' aggregates are fixed by rebuilding them
+                continue;
+            }
+
+            Node instant = database.getNodeById(deleted.getEndNode().getId());
+            if (counters != null) {
+                counters.record(instant, deleted.getType(), -1);
+            }
+            if (rollups != null) {
+                //the start node is the event as it was before the transaction
+                rollups.detached(instant, deleted.getStartNode(), deleted.getType());
+            }
+        }
+    }
+
+    /**
+     * Record changes of rolled up property values of an event that stays attached to the same time instants.
+     *
+     * @param transactionData data about the transaction.
+     * @param change          of the event node.
+     * @param rollups         to record the changes in.
+     */
+    private void recordChangedValues(ImprovedTransactionData transactionData, Change<Node> change, EventRollups rollups) {
+        boolean changed = false;
+        for (String property : configuration.getRollup().getProperties()) {
+            changed |= transactionData.hasPropertyBeenChanged(change.getPrevious(), property)
+                    || transactionData.hasPropertyBeenDeleted(change.getPrevious(), property)
+                    || transactionData.hasPropertyBeenCreated(change.getCurrent(), property);
+        }
+
+        if (!changed) {
             return;
         }
 
+        for (Relationship relationship : change.getCurrent().getRelationships(Direction.OUTGOING, configuration.getRelationshipType())) {
+            if (transactionData.hasBeenCreated(relationship)) {
+                //already recorded with the current values
+                continue;
+            }
+
+            Node instant = database.getNodeById(relationship.getEndNode().getId());
+            rollups.detached(instant, change.getPrevious(), relationship.getType());
+            rollups.attached(instant, change.getCurrent(), relationship.getType());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initialize(final GraphDatabaseService database) {
+        if (configuration.getDynamicRoot().isDefined()) {
+            createDynamicRootIndex(database);
+        }
+
+        if (configuration.isAutoAttach() && configuration.getInitializeLabelsRestriction().hasLabelsRestriction()) {
+            attachExistingEvents(database);
+        }
+
+        Collection<Node> roots;
+        try (Transaction tx = database.beginTx()) {
+            roots = EventCounters.findRoots(database);
+            tx.success();
+        }
+
+        initializeEventCounters(database, roots);
+        initializeRollups(database, roots);
+    }
+
+    private void attachExistingEvents(final GraphDatabaseService database) {
         BatchTransactionExecutor executor = new IterableInputBatchTransactionExecutor<>(database, 1000,
                 new TransactionalInput<>(database, 1000, new TransactionCallback<Iterable<Node>>() {
                     @Override
@@ -108,53 +333,333 @@ public class TimeTreeModule extends BaseTxDrivenModule<Void> {
                             LOG.info("Attaching existing events to TimeTree in batch " + batchNumber);
                         }
                         if (configuration.getInclusionPolicies().getNodeInclusionPolicy().include(input)) {
-                            deleteTimeTreeRelationship(input);
-                            createTimeTreeRelationship(input);
+                            deleteTimeTreeRelationship(input, null, null, null);
+                            createTimeTreeRelationships(Collections.singletonList(input), null, null);
                         }
                     }
                 }
         );
 
         executor.execute();
+    }
 
+    /**
+     * Rebuild the event counters of all trees from scratch if they are enabled, otherwise stop using them.
+     *
+     * @param database to initialize the counters in.
+     * @param roots    of all trees.
+     */
+    private void initializeEventCounters(GraphDatabaseService database, Collection<Node> roots) {
+        for (Node root : roots) {
+            if (configuration.hasEventCounters()) {
+                LOG.info("Rebuilding event counters of the tree rooted at " + root);
+                EventCounters.rebuild(root, Collections.singleton(configuration.getRelationshipType()));
+            } else {
+                try (Transaction tx = database.beginTx()) {
+                    EventCounters.unmark(root);
+                    tx.success();
+                }
+            }
+        }
+    }
 
+    /**
+     * Rebuild the rollups of all trees from scratch if they are defined, otherwise stop using them.
+     *
+     * @param database to initialize the rollups in.
+     * @param roots    of all trees.
+     */
+    private void initializeRollups(GraphDatabaseService database, Collection<Node> roots) {
+        for (Node root : roots) {
+            if (configuration.getRollup().isDefined()) {
+                LOG.info("Rebuilding rollups of the tree rooted at " + root);
+                EventRollups.rebuild(root, configuration.getRollup(), configuration.getRelationshipType());
+            } else {
+                try (Transaction tx = database.beginTx()) {
+                    EventRollups.unmark(root);
+                    tx.success();
+                }
+            }
+        }
     }
 
-    private void createTimeTreeRelationship(Node created) {
-        if (!created.hasProperty(configuration.getTimestampProperty())) {
-            LOG.warn("Created node with ID " + created.getId() + " does not have a " + configuration.getTimestampProperty() + " property!");
+    /**
+     * Attach events to the time instants their timestamps belong to. The events are grouped by the root of their time
+     * tree and by time instant first, so that each distinct time instant is resolved only once, however many events
+     * belong to it. Events already attached to their time instant, even ones created in the current transaction, are
+     * skipped.
+     *
+     * @param events   to attach.
+     * @param counters to record the attached events in, <code>null</code> if not maintained.
+     * @param rollups  to record the attached events in, <code>null</code> if not maintained.
+     */
+    private void createTimeTreeRelationships(Collection<Node> events, EventCounters counters, EventRollups rollups) {
+        if (events.isEmpty()) {
             return;
         }
 
-        Long timestamp;
-        try {
-            timestamp = (Long) created.getProperty(configuration.getTimestampProperty());
-        } catch (Throwable throwable) {
-            LOG.warn("Created node with ID " + created.getId() + " does not have a valid timestamp property", throwable);
-            return;
+        Map<TimeTree, Map<Long, List<Node>>> groups = new LinkedHashMap<>();
+
+        for (Node event : events) {
+            if (!event.hasProperty(configuration.getTimestampProperty())) {
+                LOG.warn("Created node with ID " + event.getId() + " does not have a " + configuration.getTimestampProperty() + " property!");
+                continue;
+            }
+
+            Long timestamp;
+            try {
+                timestamp = (Long) event.getProperty(configuration.getTimestampProperty());
+            } catch (Throwable throwable) {
+                LOG.warn("Created node with ID " + event.getId() + " does not have a valid timestamp property", throwable);
+                continue;
+            }
+
+            TimeTree tree = findTimeTree(event);
+
+            Map<Long, List<Node>> instants = groups.get(tree);
+            if (instants == null) {
+                instants = new LinkedHashMap<>();
+                groups.put(tree, instants);
+            }
+
+            long instantTime = timeInstant(timestamp).truncate().getTime();
+            List<Node> group = instants.get(instantTime);
+            if (group == null) {
+                group = new ArrayList<>();
+                instants.put(instantTime, group);
+            }
+            group.add(event);
         }
 
-        TimedEvents timedEventsToUse;
-        if (configuration.getCustomTimeTreeRootProperty() != null && created.hasProperty(configuration.getCustomTimeTreeRootProperty())) {
-            timedEventsToUse = new TimeTreeBackedEvents(new CustomRootTimeTree(created.getGraphDatabase().getNodeById(getLong(created, configuration.getCustomTimeTreeRootProperty()))));
-        } else if (configuration.getDynamicRoot().isDefined() && created.hasProperty(configuration.getDynamicRoot().getRootPropertyValueRef())){
-            Label rootLabel = DynamicLabel.label(configuration.getDynamicRoot().getRootLabel());
-            Node root = created.getGraphDatabase().findNode(rootLabel, configuration.getDynamicRoot().getRootPropertyNameRef(), created.getProperty(configuration.getDynamicRoot().getRootPropertyValueRef()));
-            if (root != null) {
-                timedEventsToUse = new TimeTreeBackedEvents(new CustomRootTimeTree(root));
-            } else {
-                timedEventsToUse = timedEvents;
+        for (Map.Entry<TimeTree, Map<Long, List<Node>>> tree : groups.entrySet()) {
+            for (Map.Entry<Long, List<Node>> group : tree.getValue().entrySet()) {
+                Node instant = tree.getKey().getOrCreateInstant(timeInstant(group.getKey()));
+
+                for (Node event : group.getValue()) {
+                    if (TimeTreeBackedEvents.isAttached(event, configuration.getRelationshipType(), instant)) {
+                        continue;
+                    }
+
+                    event.createRelationshipTo(instant, configuration.getRelationshipType());
+
+                    if (counters != null) {
+                        counters.record(instant, configuration.getRelationshipType(), 1);
+                    }
+                    if (rollups != null) {
+                        rollups.attached(instant, event, configuration.getRelationshipType());
+                    }
+                }
             }
-        } else {
-            timedEventsToUse = timedEvents;
+        }
+    }
+
+    private TimeInstant timeInstant(long timestamp) {
+        return TimeInstant.instant(timestamp).with(configuration.getResolution()).with(configuration.getTimeZone());
+    }
+
+    /**
+     * Find the time tree an event should be attached to. Trees with custom roots are reused across transactions.
+     *
+     * @param event to find the tree for.
+     * @return time tree.
+     */
+    private TimeTree findTimeTree(Node event) {
+        Node root = null;
+
+        if (configuration.getCustomTimeTreeRootProperty() != null && event.hasProperty(configuration.getCustomTimeTreeRootProperty())) {
+            root = database.getNodeById(getLong(event, configuration.getCustomTimeTreeRootProperty()));
+        } else if (configuration.getDynamicRoot().isDefined() && event.hasProperty(configuration.getDynamicRoot().getRootPropertyValueRef())) {
+            root = findDynamicRoot(event.getProperty(configuration.getDynamicRoot().getRootPropertyValueRef()));
         }
 
-        timedEventsToUse.attachEvent(created, configuration.getRelationshipType(), TimeInstant.instant(timestamp).with(configuration.getResolution()).with(configuration.getTimeZone()));
+        if (root == null) {
+            return timeTree;
+        }
+
+        return customRootTrees.getTree(root);
     }
 
-    private void deleteTimeTreeRelationship(Node changed) {
+    /**
+     * Find a dynamic root, using the cached ID of the root if it is still valid, i.e. the root hasn't been deleted and
+     * still has the root label and the identifying property value. Otherwise, the root is looked up (using the schema
+     * index created by {@link #initialize(GraphDatabaseService)}) and cached.
+     *
+     * @param value of the event property referring to the root.
+     * @return root, <code>null</code> if there is no such root.
+     */
+    private Node findDynamicRoot(Object value) {
+        Label rootLabel = DynamicLabel.label(configuration.getDynamicRoot().getRootLabel());
+        String rootProperty = configuration.getDynamicRoot().getRootPropertyNameRef();
+
+        Long cachedId = customRootTrees.getDynamicRootId(value);
+        if (cachedId != null) {
+            try {
+                Node cached = database.getNodeById(cachedId);
+                if (cached.hasLabel(rootLabel) && value.equals(cached.getProperty(rootProperty, null))) {
+                    return cached;
+                }
+            } catch (NotFoundException e) {
+                //root deleted in the meantime
+            }
+            customRootTrees.invalidateDynamicRoot(value);
+        }
+
+        Node root = database.findNode(rootLabel, rootProperty, value);
+        if (root != null) {
+            customRootTrees.putDynamicRootId(value, root.getId());
+        }
+        return root;
+    }
+
+    /**
+     * Create a schema index on the label and property identifying dynamic roots, unless there already is one (or a
+     * uniqueness constraint), so that the roots aren't looked up by a label scan.
+     *
+     * @param database to create the index in.
+     */
+    private void createDynamicRootIndex(GraphDatabaseService database) {
+        Label rootLabel = DynamicLabel.label(configuration.getDynamicRoot().getRootLabel());
+        String rootProperty = configuration.getDynamicRoot().getRootPropertyNameRef();
+
+        try (Transaction tx = database.beginTx()) {
+            for (IndexDefinition index : database.schema().getIndexes(rootLabel)) {
+                for (String key : index.getPropertyKeys()) {
+                    if (key.equals(rootProperty)) {
+                        tx.success();
+                        return;
+                    }
+                }
+            }
+
+            LOG.info("Creating index on :" + rootLabel.name() + "(" + rootProperty + ") to look up dynamic roots");
+            database.schema().indexFor(rootLabel).on(rootProperty).create();
+            tx.success();
+        }
+    }
+
+    private void deleteTimeTreeRelationship(Node changed, EventCounters counters, EventRollups rollups, Set<Long> detachedFrom) {
         for (Relationship r : changed.getRelationships(Direction.OUTGOING, configuration.getRelationshipType())) {
+            Node instant = database.getNodeById(r.getEndNode().getId());
+            if (detachedFrom != null) {
+                detachedFrom.add(instant.getId());
+            }
+            if (counters != null) {
+                counters.record(instant, r.getType(), -1);
+            }
+            if (rollups != null) {
+                rollups.detached(instant, changed, r.getType());
+            }
             r.delete();
         }
     }
+
+    /**
+     * Check whether a change of an event's timestamp or root property leaves it attached to the same time instant of
+     * the same tree, e.g. when the timestamp has changed by a few milliseconds only.
+     *
+     * @param change of the event node.
+     * @return <code>true</code> iff the event belongs to the same time instant of the same tree before and after the change.
+     */
+    private boolean isAttachmentUnchanged(Change<Node> change) {
+        String previous = attachmentKey(change.getPrevious());
+        return previous != null && previous.equals(attachmentKey(change.getCurrent()));
+    }
+
+    /**
+     * @param event node.
+     * @return key identifying the tree and the time instant the event belongs to, <code>null</code> if the event
+     * doesn't have a valid timestamp.
+     */
+    private String attachmentKey(Node event) {
+        Object timestamp = event.getProperty(configuration.getTimestampProperty(), null);
+        if (!(timestamp instanceof Long)) {
+            return null;
+        }
+
+        String root = "";
+        if (configuration.getCustomTimeTreeRootProperty() != null && event.hasProperty(configuration.getCustomTimeTreeRootProperty())) {
+            root = "custom:" + getLong(event, configuration.getCustomTimeTreeRootProperty());
+        } else if (configuration.getDynamicRoot().isDefined() && event.hasProperty(configuration.getDynamicRoot().getRootPropertyValueRef())) {
+            root = "dynamic:" + event.getProperty(configuration.getDynamicRoot().getRootPropertyValueRef());
+        }
+
+        return root + "@" + timeInstant((Long) timestamp).truncate().getTime();
+    }
+
+    /**
+     * Remove time instants that have no events attached and no children. Their ancestors left without children are
+     * removed as well, but the last time instant of a tree is never removed, so that its root isn't either.
+     *
+     * @param instantIds IDs of the time instants to remove if empty.
+     */
+    void removeEmptyInstants(Collection<Long> instantIds) {
+        for (Long instantId : instantIds) {
+            Node instant;
+            try {
+                instant = database.getNodeById(instantId);
+            } catch (NotFoundException e) {
+                //already removed, e.g. along with its only child
+                continue;
+            }
+
+            if (isRemovable(instant)) {
+                owningTree(instant).removeInstant(instant);
+            }
+        }
+    }
+
+    /**
+     * Find the time tree a time instant belongs to, so that the instant is removed through the tree that caches it.
+     *
+     * @param instant to find the tree for.
+     * @return the default time tree if the instant hangs off its root, the tree of the instant's custom root otherwise.
+     */
+    private TimeTree owningTree(Node instant) {
+        Node root = instant;
+        Relationship toParent;
+        while ((toParent = root.getSingleRelationship(TimeTreeRelationshipTypes.CHILD, Direction.INCOMING)) != null) {
+            root = toParent.getStartNode();
+        }
+
+        if (root.hasLabel(TimeTreeLabels.TimeTreeRoot)) {
+            return timeTree;
+        }
+
+        return customRootTrees.getTree(root);
+    }
+
+    /**
+     * Check that neither a time instant nor any of the ancestors {@link TimeTree#removeInstant(Node)} would remove
+     * along with it have anything but time tree relationships, and that the removal wouldn't reach the root.
+     *
+     * @param instant to check.
+     * @return <code>true</code> iff the instant can be removed.
+     */
+    private boolean isRemovable(Node instant) {
+        if (instant.hasRelationship(TimeTreeRelationshipTypes.CHILD, Direction.OUTGOING)) {
+            return false;
+        }
+
+        Node node = instant;
+        while (true) {
+            for (Relationship relationship : node.getRelationships()) {
+                if (!TIME_TREE_RELATIONSHIPS.contains(relationship.getType().name())) {
+                    return false;
+                }
+            }
+
+            Relationship toParent = node.getSingleRelationship(TimeTreeRelationshipTypes.CHILD, Direction.INCOMING);
+            if (toParent == null) {
+                //the root itself would be removed
+                return false;
+            }
+
+            Node parent = toParent.getStartNode();
+            if (parent.getDegree(TimeTreeRelationshipTypes.CHILD, Direction.OUTGOING) > 1) {
+                return true;
+            }
+
+            node = parent;
+        }
+    }
 }
@@ -17,9 +17,11 @@
 package com.graphaware.module.timetree.module;
 
 import com.graphaware.common.policy.NodeInclusionPolicy;
+import com.graphaware.module.timetree.domain.AsyncAttach;
 import com.graphaware.module.timetree.domain.DynamicRoot;
 import com.graphaware.module.timetree.domain.InitializeLabelsRestriction;
 import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.Rollup;
 import com.graphaware.runtime.config.function.StringToNodeInclusionPolicy;
 import com.graphaware.runtime.module.RuntimeModule;
 import com.graphaware.runtime.module.RuntimeModuleBootstrapper;
@@ -49,6 +51,13 @@ public class TimeTreeModuleBootstrapper implements RuntimeModuleBootstrapper {
     private static final String AUTO_ATTACH = "autoAttach";
     private static final String DYNAMIC_ROOT = "dynamicRoot";
     private static final String INITIALIZED_LABELS = "initializedLabels";
+    private static final String EVENT_COUNTERS = "eventCounters";
+    private static final String ROLLUP = "rollup";
+    private static final String ASYNC_ATTACH = "asyncAttach";
+    private static final String ASYNC_BATCH_SIZE = "asyncBatchSize";
+    private static final String ASYNC_FLUSH_INTERVAL = "asyncFlushInterval";
+    private static final String ASYNC_QUEUE_CAPACITY = "asyncQueueCapacity";
+    private static final String REMOVE_EMPTY_INSTANTS = "removeEmptyInstants";
 
     /**
      * {@inheritDoc}
@@ -111,6 +120,39 @@ public class TimeTreeModuleBootstrapper implements RuntimeModuleBootstrapper {
             configuration = configuration.withInitializeLabelsRestriction(initializeLabelsRestriction);
         }
 
+        if (config.get(EVENT_COUNTERS) != null) {
+            boolean eventCounters = Boolean.valueOf(config.get(EVENT_COUNTERS));
+            LOG.info("Event counters set to {}", eventCounters);
+            configuration = configuration.withEventCounters(eventCounters);
+        }
+
+        if (config.get(ROLLUP) != null) {
+            Rollup rollup = new Rollup(config.get(ROLLUP));
+            LOG.info("Rollup set to {}", rollup);
+            configuration = configuration.withRollup(rollup);
+        }
+
+        if (config.get(ASYNC_ATTACH) != null && Boolean.valueOf(config.get(ASYNC_ATTACH))) {
+            AsyncAttach asyncAttach = AsyncAttach.enabled();
+            if (config.get(ASYNC_BATCH_SIZE) != null) {
+                asyncAttach = asyncAttach.withBatchSize(Integer.parseInt(config.get(ASYNC_BATCH_SIZE)));
+            }
+            if (config.get(ASYNC_FLUSH_INTERVAL) != null) {
+                asyncAttach = asyncAttach.withFlushInterval(Long.parseLong(config.get(ASYNC_FLUSH_INTERVAL)));
+            }
+            if (config.get(ASYNC_QUEUE_CAPACITY) != null) {
+                asyncAttach = asyncAttach.withQueueCapacity(Integer.parseInt(config.get(ASYNC_QUEUE_CAPACITY)));
+            }
+            LOG.info("Asynchronous attach set to {}", asyncAttach);
+            configuration = configuration.withAsyncAttach(asyncAttach);
+        }
+
+        if (config.get(REMOVE_EMPTY_INSTANTS) != null) {
+            boolean removeEmptyInstants = Boolean.valueOf(config.get(REMOVE_EMPTY_INSTANTS));
+            LOG.info("Remove empty instants set to {}", removeEmptyInstants);
+            configuration = configuration.withRemoveEmptyInstants(removeEmptyInstants);
+        }
+
         return new TimeTreeModule(moduleId, configuration, database);
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.AttachResult;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimedEvent;
+import com.graphaware.test.integration.DatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.graphaware.module.timetree.domain.Resolution.*;
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+import static org.neo4j.helpers.collection.Iterables.count;
+
+/**
+ * Test for {@link ParallelTimedEventsImporter}.
+ */
+public class ParallelTimedEventsImporterTest extends DatabaseIntegrationTest {
+
+    private static final RelationshipType AT_TIME = withName("AT_TIME");
+
+    private TimeTree timeTree;
+    private TimedEvents timedEvents;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        timeTree = new SingleTimeTree(getDatabase());
+        timedEvents = new TimeTreeBackedEvents(timeTree);
+    }
+
+    @Test
+    public void eventsShouldBeImportedInParallel() {
+        //Given
+        List<TimedEvent> events = new ArrayList<>();
+        Random random = new Random(42);
+        DateTime start = new DateTime(2013, 1, 1, 0, 0, DateTimeZone.UTC);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 2000; i++) {
+                Node event = getDatabase().createNode();
+                event.setProperty("name", "event" + i);
+                long time = start.plusHours(random.nextInt(2 * 365 * 24)).getMillis();
+                events.add(new TimedEvent(event, AT_TIME, TimeInstant.instant(time).with(HOUR)));
+            }
+            tx.success();
+        }
+
+        ParallelTimedEventsImporter importer = new ParallelTimedEventsImporter(getDatabase(), timeTree, MONTH, 4, 100);
+
+        //When
+        AttachResult result = importer.importEvents(events);
+
+        //Then
+        assertEquals(2000, result.getAttached());
+        assertEquals(0, result.getSkipped());
+        assertEquals(2000, importer.getProcessed());
+        assertEquals(24, importer.getTotalPartitions());
+        assertEquals(24, importer.getCompletedPartitions());
+        assertEquals(1.0, importer.getProgress(), 0.0001);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(2000, timedEvents.getEvents(TimeInstant.instant(start.getMillis()).with(YEAR), TimeInstant.instant(start.plusYears(1).getMillis()).with(YEAR)).size());
+
+            for (TimedEvent event : events) {
+                assertEquals(1, count(event.getNode().getRelationships(OUTGOING, AT_TIME)));
+                assertEquals(timeTree.getInstant(event.getTimeInstant()), event.getNode().getSingleRelationship(AT_TIME, OUTGOING).getEndNode());
+            }
+
+            tx.success();
+        }
+
+        //When
+        result = importer.importEvents(events);
+
+        //Then
+        assertEquals(0, result.getAttached());
+        assertEquals(2000, result.getSkipped());
+    }
+
+    @Test
+    public void eventsShouldBePartitionedInTimeZoneOfTheTree() {
+        //Given
+        List<TimedEvent> events = new ArrayList<>();
+        DateTimeZone prague = DateTimeZone.forID("Europe/Prague");
+        DateTime start = new DateTime(2014, 12, 31, 20, 30, DateTimeZone.UTC);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 8; i++) {
+                Node event = getDatabase().createNode();
+                event.setProperty("name", "event" + i);
+                events.add(new TimedEvent(event, AT_TIME, TimeInstant.instant(start.plusHours(i).getMillis()).with(HOUR).with(prague)));
+            }
+            tx.success();
+        }
+
+        ParallelTimedEventsImporter importer = new ParallelTimedEventsImporter(getDatabase(), timeTree, DateTimeZone.UTC, MONTH, 2, 3);
+
+        //When
+        AttachResult result = importer.importEvents(events);
+
+        //Then
+        assertEquals(8, result.getAttached());
+        assertEquals(2, importer.getTotalPartitions());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (TimedEvent event : events) {
+                assertEquals(1, count(event.getNode().getRelationships(OUTGOING, AT_TIME)));
+                assertEquals(timeTree.getInstant(event.getTimeInstant().with(DateTimeZone.UTC)), event.getNode().getSingleRelationship(AT_TIME, OUTGOING).getEndNode());
+            }
+
+            TimeInstant december = TimeInstant.instant(start.getMillis()).with(MONTH);
+            assertEquals(4, timedEvents.getEvents(december, december).size());
+
+            tx.success();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void numberOfThreadsMustBePositive() {
+        new ParallelTimedEventsImporter(getDatabase(), timeTree, YEAR, 0, 100);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014 GraphAware
+ *
+ * This file is part of GraphAware.
+ *
+ * GraphAware is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details. You should have received a copy of
+ * the GNU General Public License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package com.graphaware.module.timetree;
+
+import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.test.integration.DatabaseIntegrationTest;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.*;
+
+import static com.graphaware.module.timetree.domain.Resolution.*;
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+
+/**
+ * Test for {@link ParallelTimedEventsReader}.
+ */
+public class ParallelTimedEventsReaderTest extends DatabaseIntegrationTest {
+
+    private static final RelationshipType AT_TIME = withName("AT_TIME");
+
+    private TimeTree timeTree;
+    private TimedEvents timedEvents;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        timeTree = new SingleTimeTree(getDatabase());
+        timedEvents = new TimeTreeBackedEvents(timeTree);
+    }
+
+    @Test
+    public void eventsShouldBeReadInParallel() {
+        //Given
+        Random random = new Random(42);
+        DateTime start = new DateTime(2013, 1, 1, 0, 0, DateTimeZone.UTC);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 1000; i++) {
+                Node event = getDatabase().createNode();
+                event.setProperty("name", "event" + i);
+                long time = start.plusHours(random.nextInt(2 * 365 * 24)).getMillis();
+                timedEvents.attachEvent(event, AT_TIME, TimeInstant.instant(time).with(HOUR));
+            }
+            tx.success();
+        }
+
+        TimeInstant startTime = TimeInstant.instant(new DateTime(2013, 3, 15, 0, 0, DateTimeZone.UTC).getMillis());
+        TimeInstant endTime = TimeInstant.instant(new DateTime(2014, 10, 20, 0, 0, DateTimeZone.UTC).getMillis());
+
+        List<Long> expected = new ArrayList<>();
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (Event event : timedEvents.getEvents(startTime, endTime, null)) {
+                expected.add(event.getNode().getId());
+            }
+            tx.success();
+        }
+
+        ParallelTimedEventsReader reader = new ParallelTimedEventsReader(getDatabase(), timeTree, 4);
+
+        //When
+        List<Event> ordered = reader.getEvents(startTime, endTime, null, true);
+        List<Event> unordered = reader.getEvents(startTime, endTime, Collections.singleton(AT_TIME), false);
+
+        //Then
+        assertEquals(expected, ids(ordered));
+
+        List<Long> sorted = ids(unordered);
+        Collections.sort(sorted);
+        Collections.sort(expected);
+        assertEquals(expected, sorted);
+    }
+
+    @Test
+    public void rangeShouldBeSplitAtBoundaries() {
+        TimeInstant startTime = TimeInstant.instant(new DateTime(2013, 3, 15, 0, 0, DateTimeZone.UTC).getMillis());
+        TimeInstant endTime = TimeInstant.instant(new DateTime(2014, 2, 10, 0, 0, DateTimeZone.UTC).getMillis());
+
+        List<TimeInstant[]> years = ParallelTimedEventsReader.split(startTime, endTime, YEAR);
+        assertEquals(2, years.size());
+        assertEquals(startTime.getTime(), years.get(0)[0].getTime());
+        assertEquals(new DateTime(2013, 12, 31, 0, 0, DateTimeZone.UTC).getMillis(), years.get(0)[1].getTime());
+        assertEquals(new DateTime(2014, 1, 1, 0, 0, DateTimeZone.UTC).getMillis(), years.get(1)[0].getTime());
+        assertEquals(endTime.getTime(), years.get(1)[1].getTime());
+
+        assertEquals(12, ParallelTimedEventsReader.split(startTime, endTime, MONTH).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void numberOfThreadsMustBePositive() {
+        new ParallelTimedEventsReader(getDatabase(), timeTree, 0);
+    }
+
+    private List<Long> ids(List<Event> events) {
+        List<Long> result = new ArrayList<>();
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (Event event : events) {
+                result.add(event.getNode().getId());
+            }
+            tx.success();
+        }
+        return result;
+    }
+}
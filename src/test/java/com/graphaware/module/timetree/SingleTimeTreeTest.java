@@ -16,25 +16,40 @@
 
 package com.graphaware.module.timetree;
 
+import com.graphaware.common.util.IterableUtils;
 import com.graphaware.common.util.PropertyContainerUtils;
+import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.SortOrder;
 import com.graphaware.module.timetree.domain.TimeInstant;
 import com.graphaware.module.timetree.domain.TimeTreeLabels;
 import com.graphaware.test.integration.DatabaseIntegrationTest;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
 import org.neo4j.tooling.GlobalGraphOperations;
 
-import java.util.List;
-import java.util.TimeZone;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static com.graphaware.module.timetree.SingleTimeTree.VALUE_PROPERTY;
 import static com.graphaware.module.timetree.domain.Resolution.*;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.CHILD;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.NEXT;
 import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
 import static org.junit.Assert.*;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
 import static org.neo4j.graphdb.DynamicRelationshipType.withName;
 
 /**
@@ -445,6 +460,147 @@ public class SingleTimeTreeTest extends DatabaseIntegrationTest {
         }
     }
 
+    @Test
+    public void shouldFindRangeOfInstantsAcrossCoarserInstantsWithoutChildren() {
+        long hour = 60 * 60 * 1000;
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 5, 3) + 5 * hour).with(HOUR));
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 5, 4)));
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 5, 6) + 10 * hour).with(HOUR));
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 5, 6) + 12 * hour).with(HOUR));
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 5, 8)));
+            tx.success();
+        }
+
+        //the days at both ends of the range exist, but have no hours
+        TimeInstant start = TimeInstant.instant(dateToMillis(2013, 5, 4)).with(HOUR);
+        TimeInstant end = TimeInstant.instant(dateToMillis(2013, 5, 8) + 23 * hour).with(HOUR);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(Arrays.asList(10, 12), values(timeTree.iterateInstants(start, end)));
+            assertEquals(Arrays.asList(12, 10), values(timeTree.iterateInstants(start, end, SortOrder.DESCENDING)));
+            assertEquals(2, timeTree.getInstants(start, end).size());
+            assertEquals(Arrays.asList(5, 10, 12), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2013, 5, 1)).with(HOUR), end)));
+            assertEquals(Collections.<Integer>emptyList(), values(timeTree.iterateInstants(start, TimeInstant.instant(dateToMillis(2013, 5, 5) + 23 * hour).with(HOUR))));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldIterateOverExistingInstantsOnly() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 5, 4)));
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 5, 30)));
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 6, 2)));
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2014, 1, 1)));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(Arrays.asList(30, 2), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2013, 5, 5)), TimeInstant.instant(dateToMillis(2013, 12, 31)))));
+            assertEquals(Arrays.asList(4, 30, 2, 1), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2000, 1, 1)), TimeInstant.instant(dateToMillis(2020, 1, 1)))));
+            assertEquals(Arrays.asList(4), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2013, 5, 4)), TimeInstant.instant(dateToMillis(2013, 5, 4)))));
+            assertEquals(Collections.<Integer>emptyList(), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2013, 5, 5)), TimeInstant.instant(dateToMillis(2013, 5, 29)))));
+            assertEquals(Collections.<Integer>emptyList(), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2012, 1, 1)), TimeInstant.instant(dateToMillis(2013, 5, 3)))));
+            assertEquals(Collections.<Integer>emptyList(), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2014, 1, 2)), TimeInstant.instant(dateToMillis(2015, 1, 1)))));
+
+            assertEquals(Arrays.asList(2, 30), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2013, 5, 5)), TimeInstant.instant(dateToMillis(2013, 12, 31)), SortOrder.DESCENDING)));
+            assertEquals(Arrays.asList(1, 2, 30, 4), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2000, 1, 1)), TimeInstant.instant(dateToMillis(2020, 1, 1)), SortOrder.DESCENDING)));
+            assertEquals(Collections.<Integer>emptyList(), values(timeTree.iterateInstants(TimeInstant.instant(dateToMillis(2013, 5, 5)), TimeInstant.instant(dateToMillis(2013, 5, 29)), SortOrder.DESCENDING)));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void siblingWalksShouldReadOneRelationshipPerStepAndNeverLookUpParents() {
+        DateTime start = new DateTime(2014, 10, 11, 10, 0, UTC);
+
+        Node root;
+        try (Transaction tx = getDatabase().beginTx()) {
+            root = getDatabase().createNode();
+            TimeTree tree = new CustomRootTimeTree(root);
+            //every third minute exists
+            for (int minute = 0; minute < 60; minute += 3) {
+                tree.getOrCreateInstant(TimeInstant.instant(start.plusMinutes(minute).getMillis()).with(MINUTE).with(UTC));
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            //walking forwards from the first child: 0, 3, ..., 24
+            Map<String, Integer> reads = new HashMap<>();
+            Node minute = new CustomRootTimeTree(countingReads(root, reads)).getInstant(TimeInstant.instant(start.plusMinutes(24).getMillis()).with(MINUTE).with(UTC));
+            assertEquals(24, PropertyContainerUtils.getInt(minute, VALUE_PROPERTY));
+            assertEquals(Integer.valueOf(8), reads.get("NEXT OUTGOING"));
+            assertNull(reads.get("NEXT INCOMING"));
+            assertNull(reads.get("CHILD INCOMING"));
+
+            //walking backwards from the last child: 57, 54, 51
+            reads.clear();
+            minute = new CustomRootTimeTree(countingReads(root, reads)).getInstant(TimeInstant.instant(start.plusMinutes(51).getMillis()).with(MINUTE).with(UTC));
+            assertEquals(51, PropertyContainerUtils.getInt(minute, VALUE_PROPERTY));
+            assertEquals(Integer.valueOf(2), reads.get("NEXT INCOMING"));
+            assertNull(reads.get("NEXT OUTGOING"));
+            assertNull(reads.get("CHILD INCOMING"));
+
+            //a missing minute is known to be missing as soon as the walk passes its value: 0, 3, ..., 24, 27
+            reads.clear();
+            assertNull(new CustomRootTimeTree(countingReads(root, reads)).getInstant(TimeInstant.instant(start.plusMinutes(25).getMillis()).with(MINUTE).with(UTC)));
+            assertEquals(Integer.valueOf(9), reads.get("NEXT OUTGOING"));
+            assertNull(reads.get("CHILD INCOMING"));
+
+            tx.success();
+        }
+    }
+
+    /**
+     * Wrap a node so that single relationships read from it, and from all nodes reached from it, are counted by type
+     * and direction.
+     *
+     * @param node  to wrap.
+     * @param reads counts of reads, keyed by type name and direction separated by a space.
+     * @return wrapped node.
+     */
+    private static Node countingReads(Node node, final Map<String, Integer> reads) {
+        return (Node) counting(node, Node.class, reads);
+    }
+
+    private static Object counting(final Object target, Class<?> type, final Map<String, Integer> reads) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getSingleRelationship".equals(method.getName())) {
+                    String key = ((RelationshipType) args[0]).name() + " " + args[1];
+                    reads.put(key, reads.containsKey(key) ? reads.get(key) + 1 : 1);
+                }
+
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+
+                if (result instanceof Node) {
+                    return counting(result, Node.class, reads);
+                }
+                if (result instanceof Relationship) {
+                    return counting(result, Relationship.class, reads);
+                }
+                return result;
+            }
+        });
+    }
+
+    private List<Integer> values(Iterator<Node> nodes) {
+        List<Integer> result = new ArrayList<>();
+        while (nodes.hasNext()) {
+            result.add(PropertyContainerUtils.getInt(nodes.next(), VALUE_PROPERTY));
+        }
+        return result;
+    }
+
     @Test
     public void shouldCreateMissingValues() {
         //Given
@@ -1180,6 +1336,537 @@ public class SingleTimeTreeTest extends DatabaseIntegrationTest {
                 "({ev:2})");
     }
 
+    @Test
+    public void rootShouldBeRecreatedAfterRemoveAll() {
+        TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2013, 5, 4));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(timeInstant);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.removeAll();
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNull(timeTree.getInstant(timeInstant));
+            assertNotNull(timeTree.getOrCreateInstant(timeInstant));
+            tx.success();
+        }
+
+        assertSameGraph(getDatabase(), "CREATE" +
+                "(root:TimeTreeRoot)," +
+                "(root)-[:FIRST]->(year:Year {value:2013})," +
+                "(root)-[:CHILD]->(year)," +
+                "(root)-[:LAST]->(year)," +
+                "(year)-[:FIRST]->(month:Month {value:5})," +
+                "(year)-[:CHILD]->(month)," +
+                "(year)-[:LAST]->(month)," +
+                "(month)-[:FIRST]->(day:Day {value:4})," +
+                "(month)-[:CHILD]->(day)," +
+                "(month)-[:LAST]->(day)");
+    }
+
+    @Test
+    public void rootRemovedByAnotherTreeShouldBeRecreated() {
+        TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2013, 5, 4));
+
+        Node root;
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(timeInstant);
+            root = IterableUtils.getSingleOrNull(getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            new SingleTimeTree(getDatabase()).removeAll();
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNull(timeTree.getInstant(timeInstant));
+            assertNotNull(timeTree.getOrCreateInstant(timeInstant));
+            Node newRoot = IterableUtils.getSingleOrNull(getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot));
+            assertNotEquals(root.getId(), newRoot.getId());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void cachedInstantShouldNotBeReturnedAfterItHasBeenRemoved() {
+        TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2013, 5, 4));
+
+        Node dayNode;
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(timeInstant);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            dayNode = timeTree.getInstant(timeInstant);
+            assertNotNull(dayNode);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.removeInstant(dayNode);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNull(timeTree.getInstant(timeInstant));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node recreated = timeTree.getOrCreateInstant(timeInstant);
+            assertNotEquals(dayNode.getId(), recreated.getId());
+            assertEquals(recreated, timeTree.getInstant(timeInstant));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void cachedInstantShouldNotBeReturnedWhenItsNodeNoLongerHangsOffTheSamePath() {
+        TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2013, 5, 4));
+
+        Node dayNode;
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(timeInstant);
+            timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2013, 6, 10)));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            dayNode = timeTree.getInstant(timeInstant);
+            assertNotNull(dayNode);
+            tx.success();
+        }
+
+        //simulate the node's ID being reused for a day with the same value in another month, behind the tree's back
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (Relationship relationship : dayNode.getRelationships()) {
+                relationship.delete();
+            }
+            timeTree.getInstant(TimeInstant.instant(dateToMillis(2013, 6, 1)).with(MONTH)).createRelationshipTo(dayNode, CHILD);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNull(timeTree.getInstant(timeInstant));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void readingInstantsShouldNotBlockOnLockedTree() throws Exception {
+        final TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2013, 5, 4));
+
+        long dayId;
+        try (Transaction tx = getDatabase().beginTx()) {
+            dayId = timeTree.getOrCreateInstant(timeInstant).getId();
+            tx.success();
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node root = IterableUtils.getSingleOrNull(getDatabase().findNodes(TimeTreeLabels.TimeTreeRoot));
+            tx.acquireWriteLock(root);
+
+            Future<Long> result = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    try (Transaction tx = getDatabase().beginTx()) {
+                        long id = timeTree.getInstantAtOrAfter(timeInstant).getId();
+                        tx.success();
+                        return id;
+                    }
+                }
+            });
+
+            assertEquals(dayId, (long) result.get(5, TimeUnit.SECONDS));
+            tx.success();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void creatingInstantsInDifferentYearsShouldNotBlockEachOther() throws Exception {
+        final TimeInstant timeInstant2013 = TimeInstant.instant(dateToMillis(2013, 5, 4));
+        final TimeInstant timeInstant2014 = TimeInstant.instant(dateToMillis(2014, 5, 4));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(timeInstant2013);
+            timeTree.getOrCreateInstant(timeInstant2014);
+            tx.success();
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Transaction tx = getDatabase().beginTx()) {
+            tx.acquireWriteLock(timeTree.getInstant(timeInstant2013.with(YEAR)));
+
+            Future<Integer> result = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    try (Transaction tx = getDatabase().beginTx()) {
+                        Node dayNode = timeTree.getOrCreateInstant(TimeInstant.instant(dateToMillis(2014, 5, 5)));
+                        tx.success();
+                        return PropertyContainerUtils.getInt(dayNode, VALUE_PROPERTY);
+                    }
+                }
+            });
+
+            assertEquals(5, (int) result.get(5, TimeUnit.SECONDS));
+            tx.success();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void instantsFromRolledBackTransactionShouldNotBeCached() {
+        TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2013, 5, 4));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(timeInstant);
+            assertNotNull(timeTree.getInstant(timeInstant));
+            assertNotNull(timeTree.getOrCreateInstant(timeInstant));
+            tx.failure();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNull(timeTree.getInstant(timeInstant));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void concurrentlyCreatedInstantsShouldFormConsistentTree() throws Exception {
+        verifyConcurrentCreation(timeTree, randomTimes(), 11);
+    }
+
+    @Test
+    public void concurrentlyCreatedInstantsShouldFormConsistentTreeWhenLockingRoot() throws Exception {
+        verifyConcurrentCreation(new SingleTimeTree(getDatabase(), SingleTimeTree.LockingMode.ROOT), randomTimes(), 11);
+    }
+
+    @Test
+    public void concurrentlyCreatedInstantsAtParentBoundariesShouldNotDeadlock() throws Exception {
+        //neighbours across the boundary of two days (and months, and years) belong to different parents
+        SortedSet<Long> times = new TreeSet<>();
+        for (int day = 0; day < 100; day++) {
+            DateTime midnight = dateToDateTime(2013, 12, 1).plusDays(day);
+            times.add(midnight.minusHours(2).getMillis());
+            times.add(midnight.minusHours(1).getMillis());
+            times.add(midnight.getMillis());
+            times.add(midnight.plusHours(1).getMillis());
+        }
+
+        //every instant is created in a transaction of its own, without retrying
+        verifyConcurrentCreation(timeTree, times, 1);
+    }
+
+    private SortedSet<Long> randomTimes() {
+        Random random = new Random(42);
+        SortedSet<Long> times = new TreeSet<>();
+        while (times.size() < 1000) {
+            times.add(dateToDateTime(2013, 1, 1).plusDays(random.nextInt(3 * 365)).plusHours(random.nextInt(24)).getMillis());
+        }
+        return times;
+    }
+
+    private void verifyConcurrentCreation(final TimeTree tree, SortedSet<Long> times, final int maxAttempts) throws Exception {
+        final int threads = 10;
+        final int distinctInstants = times.size();
+
+        Random random = new Random(42);
+
+        //every instant is requested twice, so that threads race for the same nodes as well as for neighbouring ones
+        final List<Long> requests = new ArrayList<>(times);
+        requests.addAll(times);
+        Collections.shuffle(requests, random);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = thread; i < requests.size(); i += threads) {
+                        createWithRetry(tree, TimeInstant.instant(requests.get(i)).with(HOUR).with(UTC), maxAttempts);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            List<Long> expectedHours = new ArrayList<>();
+            SortedSet<Long> expectedDays = new TreeSet<>();
+            for (long time : times) {
+                Node hour = tree.getInstant(TimeInstant.instant(time).with(HOUR).with(UTC));
+                assertNotNull(hour);
+                assertEquals(new DateTime(time, UTC).getHourOfDay(), PropertyContainerUtils.getInt(hour, VALUE_PROPERTY));
+                expectedHours.add(hour.getId());
+                expectedDays.add(tree.getInstant(TimeInstant.instant(time).with(DAY).with(UTC)).getId());
+            }
+
+            assertEquals(expectedHours, followNextChain(tree.getInstant(TimeInstant.instant(times.first()).with(HOUR).with(UTC))));
+            assertEquals(new ArrayList<>(expectedDays), followNextChain(tree.getInstant(TimeInstant.instant(times.first()).with(DAY).with(UTC))));
+            assertEquals(distinctInstants, count(getDatabase().findNodes(HOUR.getLabel())));
+            assertEquals(expectedDays.size(), count(getDatabase().findNodes(DAY.getLabel())));
+
+            tx.success();
+        }
+    }
+
+    private void createWithRetry(TimeTree tree, TimeInstant timeInstant, int maxAttempts) {
+        for (int attempt = 1; ; attempt++) {
+            try (Transaction tx = getDatabase().beginTx()) {
+                tree.getOrCreateInstant(timeInstant);
+                tx.success();
+                return;
+            } catch (DeadlockDetectedException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private List<Long> followNextChain(Node first) {
+        assertNull(first.getSingleRelationship(NEXT, INCOMING));
+
+        List<Long> result = new ArrayList<>();
+        Node current = first;
+        while (current != null) {
+            result.add(current.getId());
+            Relationship next = current.getSingleRelationship(NEXT, OUTGOING);
+            current = next == null ? null : next.getEndNode();
+        }
+        return result;
+    }
+
+    private int count(Iterator<Node> nodes) {
+        int result = 0;
+        while (nodes.hasNext()) {
+            nodes.next();
+            result++;
+        }
+        return result;
+    }
+
+    @Test
+    public void instantsShouldBeFoundWhenWalkingSiblingsFromEitherEnd() {
+        verifyMillisecondLookups(timeTree);
+    }
+
+    @Test
+    public void indexedTreeShouldFindSameInstantsAsWalkingSiblings() {
+        verifyMillisecondLookups(new SingleTimeTree(getDatabase(), SingleTimeTree.LockingMode.HIERARCHICAL, SECOND));
+    }
+
+    private void verifyMillisecondLookups(TimeTree tree) {
+        Random random = new Random(42);
+        long start = dateToMillis(2014, 4, 5);
+        List<Long> times = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            times.add(start + random.nextInt(3000));
+        }
+
+        TreeMap<Long, Long> nodeIds = new TreeMap<>();
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (long time : times) {
+                nodeIds.put(time, tree.getOrCreateInstant(TimeInstant.instant(time).with(MILLISECOND).with(UTC)).getId());
+            }
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (long time = start - 10; time < start + 3010; time++) {
+                TimeInstant timeInstant = TimeInstant.instant(time).with(MILLISECOND).with(UTC);
+
+                assertEquals(nodeIds.get(time), idOrNull(tree.getInstant(timeInstant)));
+                assertEquals(nodeIds.ceilingEntry(time) == null ? null : nodeIds.ceilingEntry(time).getValue(), idOrNull(tree.getInstantAtOrAfter(timeInstant)));
+                assertEquals(nodeIds.floorEntry(time) == null ? null : nodeIds.floorEntry(time).getValue(), idOrNull(tree.getInstantAtOrBefore(timeInstant)));
+            }
+
+            assertEquals(new ArrayList<>(nodeIds.values()), followNextChain(tree.getInstant(TimeInstant.instant(nodeIds.firstKey()).with(MILLISECOND).with(UTC))));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void childIndexShouldBeBuiltForExistingChildrenAndKeptUpToDate() {
+        TimeTree indexedTree = new SingleTimeTree(getDatabase(), SingleTimeTree.LockingMode.HIERARCHICAL, SECOND);
+
+        long start = dateToMillis(2014, 4, 5);
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(TimeInstant.instant(start + 3).with(MILLISECOND).with(UTC));
+            timeTree.getOrCreateInstant(TimeInstant.instant(start + 1).with(MILLISECOND).with(UTC));
+            tx.success();
+        }
+
+        Node second;
+        try (Transaction tx = getDatabase().beginTx()) {
+            second = timeTree.getInstant(TimeInstant.instant(start).with(SECOND).with(UTC));
+            assertFalse(second.hasProperty(ChildIndex.CHILD_VALUES_PROPERTY));
+
+            indexedTree.getOrCreateInstant(TimeInstant.instant(start + 2).with(MILLISECOND).with(UTC));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertArrayEquals(new int[]{1, 2, 3}, (int[]) second.getProperty(ChildIndex.CHILD_VALUES_PROPERTY));
+
+            //unindexed trees keep existing indices up to date
+            timeTree.getOrCreateInstant(TimeInstant.instant(start).with(MILLISECOND).with(UTC));
+            timeTree.removeInstant(timeTree.getInstant(TimeInstant.instant(start + 2).with(MILLISECOND).with(UTC)));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertArrayEquals(new int[]{0, 1, 3}, (int[]) second.getProperty(ChildIndex.CHILD_VALUES_PROPERTY));
+            assertNull(indexedTree.getInstant(TimeInstant.instant(start + 2).with(MILLISECOND).with(UTC)));
+            assertEquals(3, PropertyContainerUtils.getInt(indexedTree.getInstantAtOrAfter(TimeInstant.instant(start + 2).with(MILLISECOND).with(UTC)), VALUE_PROPERTY));
+            tx.success();
+        }
+    }
+
+    private Long idOrNull(Node node) {
+        return node == null ? null : node.getId();
+    }
+
+    @Test
+    public void rangeOfInstantsShouldBeCreatedAroundExistingOnes() {
+        DateTime start = new DateTime(2014, 12, 31, 23, 50, UTC);
+        DateTime end = new DateTime(2015, 1, 1, 0, 10, UTC);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            timeTree.getOrCreateInstant(TimeInstant.instant(start.minusMinutes(5).getMillis()).with(MINUTE));
+            timeTree.getOrCreateInstant(TimeInstant.instant(start.plusMinutes(3).getMillis()).with(MINUTE));
+            timeTree.getOrCreateInstant(TimeInstant.instant(end.getMillis()).with(MINUTE));
+            timeTree.getOrCreateInstant(TimeInstant.instant(end.plusMinutes(5).getMillis()).with(MINUTE));
+            tx.success();
+        }
+
+        List<Node> minutes;
+        try (Transaction tx = getDatabase().beginTx()) {
+            minutes = timeTree.getOrCreateInstants(TimeInstant.instant(start.getMillis()).with(MINUTE), TimeInstant.instant(end.getMillis()).with(MINUTE));
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(21, minutes.size());
+
+            DateTime time = start;
+            for (Node minute : minutes) {
+                assertEquals(timeTree.getInstant(TimeInstant.instant(time.getMillis()).with(MINUTE)), minute);
+                assertEquals(time.getMinuteOfHour(), PropertyContainerUtils.getInt(minute, VALUE_PROPERTY));
+                time = time.plusMinutes(1);
+            }
+
+            List<Long> chain = followNextChain(timeTree.getInstant(TimeInstant.instant(start.minusMinutes(5).getMillis()).with(MINUTE)));
+            assertEquals(23, chain.size());
+            assertEquals(minutes.get(0).getId(), (long) chain.get(1));
+            assertEquals(minutes.get(20).getId(), (long) chain.get(21));
+
+            tx.success();
+        }
+    }
+
+    @Test
+    public void largeRangeOfInstantsShouldBeCreatedInBatches() {
+        DateTime start = new DateTime(2014, 12, 30, 0, 0, UTC);
+        TimeInstant startTime = TimeInstant.instant(start.getMillis()).with(MINUTE);
+        TimeInstant endTime = TimeInstant.instant(start.plusDays(3).minusMinutes(1).getMillis()).with(MINUTE);
+
+        //abandoned half-way through the second batch, the first two batches have been committed
+        Iterator<Node> partial = timeTree.iterateOrCreateInstants(startTime, endTime, 100);
+        for (int i = 0; i < 150; i++) {
+            partial.next();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertNotNull(timeTree.getInstant(TimeInstant.instant(start.plusMinutes(199).getMillis()).with(MINUTE)));
+            assertNull(timeTree.getInstant(TimeInstant.instant(start.plusMinutes(200).getMillis()).with(MINUTE)));
+            tx.success();
+        }
+
+        List<Node> minutes = new ArrayList<>();
+        Iterator<Node> iterator = timeTree.iterateOrCreateInstants(startTime, endTime, 100);
+        while (iterator.hasNext()) {
+            minutes.add(iterator.next());
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(3 * 24 * 60, minutes.size());
+
+            DateTime time = start;
+            Node previous = null;
+            for (Node minute : minutes) {
+                assertEquals(timeTree.getInstant(TimeInstant.instant(time.getMillis()).with(MINUTE)), minute);
+                if (previous != null) {
+                    assertEquals(minute, previous.getSingleRelationship(NEXT, OUTGOING).getEndNode());
+                }
+
+                previous = minute;
+                time = time.plusMinutes(1);
+            }
+
+            assertEquals(3 * 24 * 60, followNextChain(timeTree.getInstant(startTime)).size());
+
+            tx.success();
+        }
+    }
+
+    @Test
+    @Ignore //benchmark, run manually
+    public void largeRangeOfInstantsShouldBeCreatedFast() {
+        DateTime start = new DateTime(2014, 10, 11, 0, 0, UTC);
+        TimeInstant startTime = TimeInstant.instant(start.getMillis()).with(SECOND);
+        TimeInstant endTime = TimeInstant.instant(start.plusDays(7).minusSeconds(1).getMillis()).with(SECOND);
+
+        long startMillis = System.currentTimeMillis();
+        long count = 0;
+        Iterator<Node> instants = timeTree.iterateOrCreateInstants(startTime, endTime, 10000);
+        while (instants.hasNext()) {
+            instants.next();
+            count++;
+        }
+
+        System.out.println("Created " + count + " instants in " + (System.currentTimeMillis() - startMillis) + " ms");
+    }
+
+    @Test
+    public void rangeOfInstantsShouldBeCreatedWhenClocksGoBack() {
+        DateTimeZone prague = DateTimeZone.forID("Europe/Prague");
+        DateTime start = new DateTime(2014, 10, 26, 0, 0, prague);
+        DateTime end = new DateTime(2014, 10, 26, 4, 0, prague);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            List<Node> hours = timeTree.getOrCreateInstants(TimeInstant.instant(start.getMillis()).with(HOUR).with(prague), TimeInstant.instant(end.getMillis()).with(HOUR).with(prague));
+
+            assertEquals(6, hours.size());
+            assertEquals(hours.get(2), hours.get(3));
+            assertEquals(5, followNextChain(hours.get(0)).size());
+
+            tx.success();
+        }
+    }
+
     @Test
     public void shouldSupportDatesBefore1970() {
         //Given
@@ -16,9 +16,15 @@
 
 package com.graphaware.module.timetree;
 
+import com.graphaware.module.timetree.domain.Aggregate;
+import com.graphaware.module.timetree.domain.AttachResult;
 import com.graphaware.module.timetree.domain.Event;
+import com.graphaware.module.timetree.domain.EventPage;
 import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.Rollup;
+import com.graphaware.module.timetree.domain.SortOrder;
 import com.graphaware.module.timetree.domain.TimeInstant;
+import com.graphaware.module.timetree.domain.TimedEvent;
 import com.graphaware.test.integration.DatabaseIntegrationTest;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -678,6 +684,538 @@ public class TimeTreeBackedEventsTest extends DatabaseIntegrationTest {
         }
     }
 
+    @Test
+    public void eventsShouldBeIteratedLazilyChildrenFirst() {
+        //Given
+        try (Transaction tx = getDatabase().beginTx()) {
+            attach("month", TimeInstant.instant(dateToMillis(2014, 3, 1)).with(MONTH));
+            attach("day5", TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            attach("day5hour10", TimeInstant.instant(dateToMillis(2014, 3, 5) + 10 * 3600 * 1000).with(Resolution.HOUR));
+            attach("day5hour2", TimeInstant.instant(dateToMillis(2014, 3, 5) + 2 * 3600 * 1000).with(Resolution.HOUR));
+            attach("day7", TimeInstant.instant(dateToMillis(2014, 3, 7)));
+            attach("nextMonth", TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH));
+            tx.success();
+        }
+
+        //When & Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            Iterator<Event> events = timedEvents.iterateEvents(TimeInstant.instant(dateToMillis(2014, 3, 1)).with(MONTH), TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH), null);
+
+            assertTrue(events.hasNext());
+            assertTrue(events.hasNext());
+            assertEquals("day5hour2", events.next().getNode().getProperty("name"));
+            assertEquals("day5hour10", events.next().getNode().getProperty("name"));
+            assertEquals("day5", events.next().getNode().getProperty("name"));
+            assertEquals("day7", events.next().getNode().getProperty("name"));
+            assertEquals("month", events.next().getNode().getProperty("name"));
+            assertEquals("nextMonth", events.next().getNode().getProperty("name"));
+            assertFalse(events.hasNext());
+
+            events = timedEvents.iterateEvents(TimeInstant.instant(dateToMillis(2014, 3, 5)), Collections.singleton(AT_OTHER_TIME));
+            assertFalse(events.hasNext());
+
+            assertEquals(3, timedEvents.getEvents(TimeInstant.instant(dateToMillis(2014, 3, 5)), Collections.singleton(AT_TIME)).size());
+
+            tx.success();
+        }
+    }
+
+    @Test
+    public void eventsShouldBeFetchedInPagesUsingCursors() {
+        //Given
+        try (Transaction tx = getDatabase().beginTx()) {
+            attach("month", TimeInstant.instant(dateToMillis(2014, 3, 1)).with(MONTH));
+            attach("day5", TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            attach("day5hour10", TimeInstant.instant(dateToMillis(2014, 3, 5) + 10 * 3600 * 1000).with(Resolution.HOUR));
+            attach("day5hour2", TimeInstant.instant(dateToMillis(2014, 3, 5) + 2 * 3600 * 1000).with(Resolution.HOUR));
+            attach("day7", TimeInstant.instant(dateToMillis(2014, 3, 7)));
+            attach("day7again", TimeInstant.instant(dateToMillis(2014, 3, 7)));
+            attach("nextMonth", TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH));
+            tx.success();
+        }
+
+        TimeInstant start = TimeInstant.instant(dateToMillis(2014, 3, 1)).with(MONTH);
+        TimeInstant end = TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH);
+
+        //When & Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            EventPage page = timedEvents.getEvents(start, end, null, SortOrder.ASCENDING, null, 0, 2);
+            assertEquals(2, page.getEvents().size());
+            assertEquals("day5hour2", page.getEvents().get(0).getNode().getProperty("name"));
+            assertEquals("day5hour10", page.getEvents().get(1).getNode().getProperty("name"));
+            assertTrue(page.hasMore());
+
+            page = timedEvents.getEvents(start, end, null, SortOrder.ASCENDING, page.getNextCursor(), 1, 1);
+            assertEquals(1, page.getEvents().size());
+            assertTrue(page.getEvents().get(0).getNode().getProperty("name").toString().startsWith("day7"));
+
+            List<Event> all = timedEvents.getEvents(start, end);
+            List<Event> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                page = timedEvents.getEvents(start, end, null, SortOrder.ASCENDING, cursor, 0, 1);
+                paged.addAll(page.getEvents());
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+
+            assertEquals(7, paged.size());
+            for (int i = 0; i < all.size(); i++) {
+                assertEquals(all.get(i).getNode(), paged.get(i).getNode());
+            }
+
+            page = timedEvents.getEvents(start, end, null, SortOrder.ASCENDING, null, 6, 10);
+            assertEquals(1, page.getEvents().size());
+            assertEquals("nextMonth", page.getEvents().get(0).getNode().getProperty("name"));
+            assertFalse(page.hasMore());
+
+            tx.success();
+        }
+    }
+
+    @Test
+    public void eventsShouldBeFetchedNewestFirst() {
+        //Given
+        try (Transaction tx = getDatabase().beginTx()) {
+            attach("month", TimeInstant.instant(dateToMillis(2014, 3, 1)).with(MONTH));
+            attach("day5", TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            attach("day5hour10", TimeInstant.instant(dateToMillis(2014, 3, 5) + 10 * 3600 * 1000).with(Resolution.HOUR));
+            attach("day5hour2", TimeInstant.instant(dateToMillis(2014, 3, 5) + 2 * 3600 * 1000).with(Resolution.HOUR));
+            attach("day7", TimeInstant.instant(dateToMillis(2014, 3, 7)));
+            attach("nextMonth", TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH));
+            tx.success();
+        }
+
+        TimeInstant start = TimeInstant.instant(dateToMillis(2014, 3, 1)).with(MONTH);
+        TimeInstant end = TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH);
+
+        //When & Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            List<Event> events = timedEvents.getEvents(start, end, null, SortOrder.DESCENDING);
+            List<String> expected = Arrays.asList("nextMonth", "month", "day7", "day5", "day5hour10", "day5hour2");
+
+            assertEquals(expected.size(), events.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), events.get(i).getNode().getProperty("name"));
+            }
+
+            attach("day7again", TimeInstant.instant(dateToMillis(2014, 3, 7)));
+            events = timedEvents.getEvents(start, end, null, SortOrder.DESCENDING);
+
+            List<Event> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                EventPage page = timedEvents.getEvents(start, end, null, SortOrder.DESCENDING, cursor, 0, 1);
+                paged.addAll(page.getEvents());
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+
+            assertEquals(7, paged.size());
+            for (int i = 0; i < events.size(); i++) {
+                assertEquals(events.get(i).getNode(), paged.get(i).getNode());
+            }
+
+            EventPage latest = timedEvents.getEvents(start, end, null, SortOrder.DESCENDING, null, 0, 2);
+            assertEquals("nextMonth", latest.getEvents().get(0).getNode().getProperty("name"));
+            assertEquals("month", latest.getEvents().get(1).getNode().getProperty("name"));
+            assertTrue(latest.hasMore());
+
+            tx.success();
+        }
+    }
+
+    @Test
+    public void onlyEventsOfRequestedTypesShouldBeFetched() {
+        //Given
+        TimeInstant timeInstant = TimeInstant.instant(dateToMillis(2014, 3, 5));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 10; i++) {
+                Node event = getDatabase().createNode();
+                event.setProperty("name", "event" + i);
+                timedEvents.attachEvent(event, i % 3 == 0 ? AT_OTHER_TIME : AT_TIME, timeInstant);
+            }
+            tx.success();
+        }
+
+        //When & Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(10, timedEvents.getEvents(timeInstant).size());
+            assertEquals(10, timedEvents.getEvents(timeInstant, REL_TYPES).size());
+            assertEquals(6, timedEvents.getEvents(timeInstant, Collections.singleton(AT_TIME)).size());
+
+            List<Event> events = timedEvents.getEvents(timeInstant, Collections.singleton(AT_OTHER_TIME));
+            assertEquals(4, events.size());
+            for (Event event : events) {
+                assertEquals(AT_OTHER_TIME.name(), event.getRelationshipType().name());
+            }
+
+            Set<RelationshipType> withTreeTypes = new HashSet<>(Arrays.asList(AT_OTHER_TIME, withName("CHILD"), withName("NEXT")));
+            assertEquals(4, timedEvents.getEvents(timeInstant, withTreeTypes).size());
+            assertEquals(0, timedEvents.getEvents(timeInstant, Collections.<RelationshipType>singleton(withName("CHILD"))).size());
+            assertEquals(0, timedEvents.getEvents(timeInstant, Collections.<RelationshipType>emptySet()).size());
+
+            tx.success();
+        }
+    }
+
+    @Test
+    public void eventsShouldBeCountedWithoutBeingFetched() {
+        //Given
+        try (Transaction tx = getDatabase().beginTx()) {
+            attach("month", TimeInstant.instant(dateToMillis(2014, 3, 1)).with(MONTH));
+            attach("day5", TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            attach("day5hour10", TimeInstant.instant(dateToMillis(2014, 3, 5) + 10 * 3600 * 1000).with(Resolution.HOUR));
+            attach("day5hour2", TimeInstant.instant(dateToMillis(2014, 3, 5) + 2 * 3600 * 1000).with(Resolution.HOUR));
+            attach("day7", TimeInstant.instant(dateToMillis(2014, 3, 7)));
+            attach("nextMonth", TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH));
+            attach("year", TimeInstant.instant(dateToMillis(2014, 1, 1)).with(YEAR));
+
+            Node other = getDatabase().createNode();
+            timedEvents.attachEvent(other, AT_OTHER_TIME, TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            tx.success();
+        }
+
+        TimeInstant start = TimeInstant.instant(dateToMillis(2014, 3, 1)).with(MONTH);
+        TimeInstant end = TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH);
+
+        //When & Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(7, timedEvents.countEvents(start, end, null));
+            assertEquals(6, timedEvents.countEvents(start, end, Collections.singleton(AT_TIME)));
+            assertEquals(1, timedEvents.countEvents(start, end, Collections.singleton(AT_OTHER_TIME)));
+            assertEquals(7, timedEvents.countEvents(start, end, REL_TYPES));
+            assertEquals(6, timedEvents.countEvents(start, start, null));
+            assertEquals(0, timedEvents.countEvents(start, end, Collections.<RelationshipType>singleton(withName("CHILD"))));
+            assertEquals(8, timedEvents.countEvents(TimeInstant.instant(dateToMillis(2014, 1, 1)).with(YEAR), TimeInstant.instant(dateToMillis(2014, 1, 1)).with(YEAR), null));
+            assertEquals(0, timedEvents.countEvents(TimeInstant.instant(dateToMillis(2015, 1, 1)).with(YEAR), TimeInstant.instant(dateToMillis(2016, 1, 1)).with(YEAR), null));
+
+            assertEquals(timedEvents.getEvents(start, end).size(), timedEvents.countEvents(start, end, null));
+
+            tx.success();
+        }
+    }
+
+    @Test
+    public void eventsShouldBeAggregatedUsingRollups() {
+        //Given
+        Node changed;
+        try (Transaction tx = getDatabase().beginTx()) {
+            attach("a", TimeInstant.instant(dateToMillis(2014, 3, 5)), 10);
+            attach("b", TimeInstant.instant(dateToMillis(2014, 3, 5)), 4);
+            changed = attach("c", TimeInstant.instant(dateToMillis(2014, 3, 20)), 7);
+            attach("d", TimeInstant.instant(dateToMillis(2014, 4, 10)), 1.5);
+            attach("e", TimeInstant.instant(dateToMillis(2014, 4, 30)), 12);
+            attach("f", TimeInstant.instant(dateToMillis(2014, 5, 2)), 3);
+            attach("noAmount", TimeInstant.instant(dateToMillis(2014, 4, 10)));
+
+            Node other = getDatabase().createNode();
+            other.setProperty("amount", 100);
+            timedEvents.attachEvent(other, AT_OTHER_TIME, TimeInstant.instant(dateToMillis(2014, 3, 20)));
+            tx.success();
+        }
+
+        TimeInstant start = TimeInstant.instant(dateToMillis(2014, 3, 5));
+        TimeInstant end = TimeInstant.instant(dateToMillis(2014, 4, 30));
+
+        //When & Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(28, TimeTreeBackedEvents.alignedBuckets(start, end).size());
+            assertEquals(MONTH, TimeTreeBackedEvents.alignedBuckets(start, end).get(27).getResolution());
+            assertEquals(1, TimeTreeBackedEvents.alignedBuckets(TimeInstant.instant(dateToMillis(2014, 1, 1)), TimeInstant.instant(dateToMillis(2014, 12, 31))).size());
+
+            assertAggregate(timedEvents.aggregateEvents(start, end, Collections.singleton(AT_TIME), "amount"), 5, 34.5, 1.5, 12.0);
+            assertAggregate(timedEvents.aggregateEvents(start, end, null, "amount"), 6, 134.5, 1.5, 100.0);
+
+            tx.success();
+        }
+
+        Node root;
+        try (Transaction tx = getDatabase().beginTx()) {
+            root = EventCounters.findRoots(getDatabase()).iterator().next();
+            tx.success();
+        }
+
+        EventRollups.rebuild(root, new Rollup("amount:sum,max;duration:min"), AT_TIME);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            //not visible to the rollups, since they have been rebuilt before and nothing maintains them here
+            changed.setProperty("amount", 1000);
+
+            assertAggregate(timedEvents.aggregateEvents(start, end, Collections.singleton(AT_TIME), "amount"), 5, 34.5, null, 12.0);
+            assertAggregate(timedEvents.aggregateEvents(TimeInstant.instant(dateToMillis(2014, 1, 1)).with(YEAR), TimeInstant.instant(dateToMillis(2014, 1, 1)).with(YEAR), Collections.singleton(AT_TIME), "amount"), 6, 37.5, null, 12.0);
+            assertAggregate(timedEvents.aggregateEvents(start, end, Collections.singleton(AT_TIME), "duration"), 0, null, null, null);
+            assertAggregate(timedEvents.aggregateEvents(start, end, null, "amount"), 6, 1127.5, 1.5, 1000.0);
+
+            tx.failure();
+        }
+    }
+
+    @Test
+    public void eventsAttachedToCoarserInstantsShouldNotBeCounted() {
+        //Given
+        try (Transaction tx = getDatabase().beginTx()) {
+            attach("a", TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            attach("b", TimeInstant.instant(dateToMillis(2014, 3, 20)));
+            attach("c", TimeInstant.instant(dateToMillis(2014, 4, 10)).with(Resolution.HOUR));
+            attach("d", TimeInstant.instant(dateToMillis(2014, 4, 30)));
+            attach("e", TimeInstant.instant(dateToMillis(2014, 5, 2)));
+            attach("april", TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH));
+            tx.success();
+        }
+
+        //a whole April is covered by the range, but the event attached to the month itself is not in it
+        TimeInstant start = TimeInstant.instant(dateToMillis(2014, 3, 5));
+        TimeInstant end = TimeInstant.instant(dateToMillis(2014, 4, 30));
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(4, timedEvents.countEvents(start, end, Collections.singleton(AT_TIME)));
+            assertEquals(timedEvents.getEvents(start, end, Collections.singleton(AT_TIME)).size(), timedEvents.countEvents(start, end, Collections.singleton(AT_TIME)));
+            tx.success();
+        }
+
+        Node root;
+        try (Transaction tx = getDatabase().beginTx()) {
+            root = EventCounters.findRoots(getDatabase()).iterator().next();
+            tx.success();
+        }
+
+        EventCounters.rebuild(root, Collections.singleton(AT_TIME));
+
+        //When & Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(4, timedEvents.countEvents(start, end, Collections.singleton(AT_TIME)));
+            assertEquals(timedEvents.getEvents(start, end, Collections.singleton(AT_TIME)).size(), timedEvents.countEvents(start, end, Collections.singleton(AT_TIME)));
+            assertEquals(3, timedEvents.countEvents(TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH), TimeInstant.instant(dateToMillis(2014, 4, 1)).with(MONTH), Collections.singleton(AT_TIME)));
+
+            //not visible to the counters, since they have been rebuilt before and nothing maintains them here
+            attach("f", TimeInstant.instant(dateToMillis(2014, 4, 15)));
+            assertEquals(4, timedEvents.countEvents(start, end, Collections.singleton(AT_TIME)));
+            assertEquals(5, timedEvents.countEvents(start, end, null));
+
+            tx.failure();
+        }
+    }
+
+    @Test
+    public void eventsShouldBeCountedPerBucket() {
+        //Given
+        long day5 = dateToMillis(2014, 3, 5);
+        long day6 = dateToMillis(2014, 3, 6);
+        long hour = 3600 * 1000;
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            attach("day5", TimeInstant.instant(day5));
+            attach("day5hour2", TimeInstant.instant(day5 + 2 * hour).with(Resolution.HOUR));
+            attach("day5hour10", TimeInstant.instant(day5 + 10 * hour).with(Resolution.HOUR));
+            attach("day5hour10minute5", TimeInstant.instant(day5 + 10 * hour + 5 * 60 * 1000).with(Resolution.MINUTE));
+            attach("day6hour0", TimeInstant.instant(day6).with(Resolution.HOUR));
+            attach("day7hour0", TimeInstant.instant(dateToMillis(2014, 3, 7)).with(Resolution.HOUR));
+            tx.success();
+        }
+
+        TimeInstant start = TimeInstant.instant(day5).with(Resolution.HOUR);
+        TimeInstant end = TimeInstant.instant(day6 + 23 * hour).with(Resolution.HOUR);
+
+        //When
+        SortedMap<Long, Long> histogram;
+        SortedMap<Long, Long> otherHistogram;
+        try (Transaction tx = getDatabase().beginTx()) {
+            histogram = timedEvents.getHistogram(start, end, Collections.singleton(AT_TIME));
+            otherHistogram = timedEvents.getHistogram(start, end, Collections.singleton(AT_OTHER_TIME));
+            tx.success();
+        }
+
+        //Then
+        assertEquals(48, histogram.size());
+        assertEquals(day5, (long) histogram.firstKey());
+        assertEquals(day6 + 23 * hour, (long) histogram.lastKey());
+
+        long total = 0;
+        for (Map.Entry<Long, Long> bucket : histogram.entrySet()) {
+            total += bucket.getValue();
+        }
+        assertEquals(4, total);
+        assertEquals(1, (long) histogram.get(day5 + 2 * hour));
+        assertEquals(2, (long) histogram.get(day5 + 10 * hour));
+        assertEquals(1, (long) histogram.get(day6));
+        assertEquals(0, (long) histogram.get(day5 + 3 * hour));
+
+        assertEquals(48, otherHistogram.size());
+        assertFalse(otherHistogram.values().contains(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogramWithTooManyBucketsShouldBeRejected() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            timedEvents.getHistogram(TimeInstant.instant(dateToMillis(2014, 3, 1)).with(Resolution.SECOND), TimeInstant.instant(dateToMillis(2014, 4, 1)).with(Resolution.SECOND), null);
+            tx.success();
+        }
+    }
+
+    private void assertAggregate(Aggregate aggregate, long count, Double sum, Double min, Double max) {
+        assertEquals(count, aggregate.getCount());
+        assertEquals(sum, aggregate.getSum());
+        assertEquals(min, aggregate.getMin());
+        assertEquals(max, aggregate.getMax());
+    }
+
+    @Test
+    public void cursorOfDetachedEventShouldBeRejected() {
+        //Given
+        try (Transaction tx = getDatabase().beginTx()) {
+            attach("first", TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            attach("second", TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            attach("third", TimeInstant.instant(dateToMillis(2014, 3, 5)));
+            tx.success();
+        }
+
+        TimeInstant start = TimeInstant.instant(dateToMillis(2014, 3, 1));
+        TimeInstant end = TimeInstant.instant(dateToMillis(2014, 3, 31));
+
+        String cursor;
+        try (Transaction tx = getDatabase().beginTx()) {
+            EventPage page = timedEvents.getEvents(start, end, null, SortOrder.ASCENDING, null, 0, 1);
+            assertEquals(1, page.getEvents().size());
+            cursor = page.getNextCursor();
+
+            //When
+            Node event = page.getEvents().get(0).getNode();
+            event.getSingleRelationship(AT_TIME, OUTGOING).delete();
+            event.delete();
+            tx.success();
+        }
+
+        //Then
+        try (Transaction tx = getDatabase().beginTx()) {
+            timedEvents.getEvents(start, end, null, SortOrder.ASCENDING, cursor, 0, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //ok, the remaining events of the day must not be silently skipped
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(2, timedEvents.getEvents(start, end, null, SortOrder.ASCENDING, null, 0, 10).getEvents().size());
+            tx.success();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCursorShouldBeRejected() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            timedEvents.getEvents(TimeInstant.instant(dateToMillis(2014, 3, 1)), TimeInstant.instant(dateToMillis(2014, 3, 2)), null, SortOrder.ASCENDING, "notACursor", 0, 10);
+            tx.success();
+        }
+    }
+
+    private Node attach(String name, TimeInstant timeInstant) {
+        Node event = getDatabase().createNode();
+        event.setProperty("name", name);
+        timedEvents.attachEvent(event, AT_TIME, timeInstant);
+        return event;
+    }
+
+    private Node attach(String name, TimeInstant timeInstant, Number amount) {
+        Node event = attach(name, timeInstant);
+        event.setProperty("amount", amount);
+        return event;
+    }
+
+    @Test
+    public void multipleEventsShouldBeAttachedInBatches() {
+        //Given
+        List<TimedEvent> toAttach = new ArrayList<>();
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 100; i++) {
+                Node event = getDatabase().createNode();
+                event.setProperty("name", "event" + i);
+                toAttach.add(new TimedEvent(event, AT_TIME, TimeInstant.instant(dateToMillis(2014, 3, 1 + (i * 7) % 10) + i)));
+            }
+            tx.success();
+        }
+
+        //When
+        AttachResult result = timedEvents.attachEvents(toAttach, 7);
+
+        //Then
+        assertEquals(100, result.getAttached());
+        assertEquals(0, result.getSkipped());
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(100, timedEvents.getEvents(TimeInstant.instant(dateToMillis(2014, 3, 1)), TimeInstant.instant(dateToMillis(2014, 3, 10))).size());
+            for (int day = 1; day <= 10; day++) {
+                assertEquals(10, timedEvents.getEvents(TimeInstant.instant(dateToMillis(2014, 3, day))).size());
+            }
+            for (TimedEvent event : toAttach) {
+                assertEquals(1, count(event.getNode().getRelationships(OUTGOING, AT_TIME)));
+            }
+            tx.success();
+        }
+
+        //When
+        result = timedEvents.attachEvents(toAttach.iterator(), 30);
+
+        //Then
+        assertEquals(0, result.getAttached());
+        assertEquals(100, result.getSkipped());
+    }
+
+    @Test
+    public void hubEventsShouldNotBeAttachedTwice() {
+        try (Transaction tx = getDatabase().beginTx()) {
+            //Given an event attached to many instants and an instant with many events
+            Node hub = getDatabase().createNode();
+            for (int day = 1; day <= 20; day++) {
+                assertTrue(timedEvents.attachEvent(hub, AT_TIME, TimeInstant.instant(dateToMillis(2014, 3, day)).with(UTC)));
+            }
+
+            for (int i = 0; i < 20; i++) {
+                timedEvents.attachEvent(getDatabase().createNode(), AT_TIME, TimeInstant.instant(dateToMillis(2014, 3, 5)).with(UTC));
+            }
+
+            //Then
+            assertFalse(timedEvents.attachEvent(hub, AT_TIME, TimeInstant.instant(dateToMillis(2014, 3, 5)).with(UTC)));
+            assertFalse(timedEvents.attachEvent(hub, AT_TIME, TimeInstant.instant(dateToMillis(2014, 3, 20)).with(UTC)));
+            assertTrue(timedEvents.attachEvent(hub, AT_TIME, TimeInstant.instant(dateToMillis(2014, 3, 21)).with(UTC)));
+            assertEquals(21, hub.getDegree(AT_TIME, OUTGOING));
+
+            tx.success();
+        }
+    }
+
+    @Test
+    @Ignore //benchmark, run manually
+    public void attachingToHubEventsShouldBeFast() {
+        int instants = 20000;
+        DateTime start = dateToDateTime(2014, 1, 1);
+
+        long startTime = System.currentTimeMillis();
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node hub = getDatabase().createNode();
+            for (int i = 0; i < instants; i++) {
+                timedEvents.attachEvent(hub, AT_TIME, TimeInstant.instant(start.plusHours(i).getMillis()).with(Resolution.HOUR).with(UTC));
+            }
+            tx.success();
+        }
+
+        System.out.println("Attached a single event to " + instants + " hours in " + (System.currentTimeMillis() - startTime) + " ms");
+
+        startTime = System.currentTimeMillis();
+        try (Transaction tx = getDatabase().beginTx()) {
+            TimeInstant instant = TimeInstant.instant(start.getMillis()).with(Resolution.HOUR).with(UTC);
+            for (int i = 0; i < instants; i++) {
+                timedEvents.attachEvent(getDatabase().createNode(), AT_TIME, instant);
+            }
+            tx.success();
+        }
+
+        System.out.println("Attached " + instants + " events to a single hour in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchSizeMustBePositive() {
+        timedEvents.attachEvents(Collections.<TimedEvent>emptyList(), 0);
+    }
+
     @Test
     @Ignore //save my CPU from frying
     public void perSecondEventsShouldBeFetched() { //Test for Issue #2
@@ -33,6 +33,7 @@ import java.util.Collections;
 
 import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Integration test for {@link TimeTreeApi}.
@@ -363,6 +364,35 @@ public class TimedEventsApiTest extends GraphAwareApiTest {
 
         assertEquals("[{\"nodeId\":0,\"relationshipType\":\"AT_TIME\"}," +
                 "{\"nodeId\":1,\"relationshipType\":\"AT_TIME\"}]", getResult);
+
+        getResult = httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/events?limit=1", HttpStatus.SC_OK);
+        assertEquals("[{\"nodeId\":0,\"relationshipType\":\"AT_TIME\"}]", getResult);
+
+        getResult = httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/events?offset=1&limit=1", HttpStatus.SC_OK);
+        assertEquals("[{\"nodeId\":1,\"relationshipType\":\"AT_TIME\"}]", getResult);
+
+        httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/events?limit=0", HttpStatus.SC_BAD_REQUEST);
+
+        getResult = httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/events?order=desc", HttpStatus.SC_OK);
+        assertEquals("[{\"nodeId\":1,\"relationshipType\":\"AT_TIME\"}," +
+                "{\"nodeId\":0,\"relationshipType\":\"AT_TIME\"}]", getResult);
+
+        getResult = httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/events?order=desc&limit=1", HttpStatus.SC_OK);
+        assertEquals("[{\"nodeId\":1,\"relationshipType\":\"AT_TIME\"}]", getResult);
+
+        httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/events?order=sideways", HttpStatus.SC_BAD_REQUEST);
+
+        assertEquals("2", httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/count", HttpStatus.SC_OK));
+        assertEquals("1", httpClient.get(getUrl() + "range/" + timeInstant2.getTime() + "/" + timeInstant2.getTime() + "/count?relationshipTypes=AT_TIME", HttpStatus.SC_OK));
+        assertEquals("0", httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/count?relationshipTypes=OTHER", HttpStatus.SC_OK));
+
+        //names aren't numeric
+        assertTrue(httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/aggregate/name", HttpStatus.SC_OK).contains("\"count\":0"));
+
+        String histogram = httpClient.get(getUrl() + "range/" + timeInstant1.getTime() + "/" + timeInstant2.getTime() + "/histogram", HttpStatus.SC_OK);
+        assertTrue(histogram.contains("\"" + timeInstant1.getTime() + "\":1"));
+        assertTrue(histogram.contains("\"" + timeInstant1.next().getTime() + "\":0"));
+        assertTrue(histogram.contains("\"" + timeInstant2.getTime() + "\":1"));
     }
 
 
@@ -23,6 +23,7 @@ import com.graphaware.common.serialize.Serializer;
 import com.graphaware.module.timetree.domain.DynamicRoot;
 import com.graphaware.module.timetree.domain.InitializeLabelsRestriction;
 import com.graphaware.module.timetree.domain.Resolution;
+import com.graphaware.module.timetree.domain.Rollup;
 import com.graphaware.runtime.GraphAwareRuntime;
 import com.graphaware.runtime.GraphAwareRuntimeFactory;
 import com.graphaware.runtime.metadata.DefaultTxDrivenModuleMetadata;
@@ -32,13 +33,18 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.IndexDefinition;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.*;
 
 import static com.graphaware.module.timetree.domain.Resolution.MONTH;
 import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
+import static org.junit.Assert.assertEquals;
 
 /**
  * Test for {@link TimeTreeModule} set up programatically.
@@ -295,6 +301,138 @@ public class TimeTreeModuleMultiRootProgrammaticTest extends DatabaseIntegration
         );
     }
 
+    @Test
+    public void shouldIndexAndRevalidateDynamicRoots() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withDynamicRoot(new DynamicRoot("User:id:user_id")), getDatabase()));
+        runtime.start();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            IndexDefinition index = getDatabase().schema().getIndexes(DynamicLabel.label("User")).iterator().next();
+            assertEquals("id", index.getPropertyKeys().iterator().next());
+            tx.success();
+        }
+
+        createUserAsRootWithId(1);
+        long first = createEventForUser(1);
+
+        //the cached root no longer has the identifying value, another user has it now
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().findNode(DynamicLabel.label("User"), "id", 1).setProperty("id", 2);
+            tx.success();
+        }
+        createUserAsRootWithId(1);
+        long second = createEventForUser(1);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(2, rootOf(first).getProperty("id"));
+            assertEquals(1, rootOf(second).getProperty("id"));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void eventCountersOfNewTreeShouldBeCorrectWithConcurrentFirstWriters() throws Exception {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withEventCounters(true), getDatabase()));
+        runtime.start();
+
+        for (int round = 0; round < 10; round++) {
+            Node year = createFirstEventsConcurrently(createCustomRoot(), 10);
+
+            try (Transaction tx = getDatabase().beginTx()) {
+                assertEquals(20L, year.getProperty("eventCount_AT_TIME"));
+                tx.success();
+            }
+        }
+    }
+
+    @Test
+    public void rollupsOfNewTreeShouldBeCorrectWithConcurrentFirstWriters() throws Exception {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withRollup(new Rollup("amount:sum,min,max")), getDatabase()));
+        runtime.start();
+
+        for (int round = 0; round < 10; round++) {
+            Node year = createFirstEventsConcurrently(createCustomRoot(), 10);
+
+            try (Transaction tx = getDatabase().beginTx()) {
+                assertEquals(20L, year.getProperty("rollup_amount_count"));
+                assertEquals(90.0, year.getProperty("rollup_amount_sum"));
+                assertEquals(0.0, year.getProperty("rollup_amount_min"));
+                assertEquals(9.0, year.getProperty("rollup_amount_max"));
+                tx.success();
+            }
+        }
+    }
+
+    /**
+     * Create the first events of a tree with a custom root in two concurrent transactions, each attaching its events
+     * to a different month of the same year.
+     *
+     * @param rootId          ID of the custom root.
+     * @param eventsPerThread number of events created by each transaction.
+     * @return the year node shared by both transactions.
+     */
+    private Node createFirstEventsConcurrently(final long rootId, final int eventsPerThread) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 2; thread++) {
+                final long timestamp = TIMESTAMP + thread * 31L * 24 * 60 * 60 * 1000;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        barrier.await();
+                        try (Transaction tx = getDatabase().beginTx()) {
+                            for (int i = 0; i < eventsPerThread; i++) {
+                                Node node = getDatabase().createNode(Event);
+                                node.setProperty("timestamp", timestamp);
+                                node.setProperty("timeTreeRootId", rootId);
+                                node.setProperty("amount", i);
+                            }
+                            tx.success();
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node root = getDatabase().getNodeById(rootId);
+            assertEquals(1, root.getDegree(DynamicRelationshipType.withName("CHILD"), Direction.OUTGOING));
+            Node year = root.getSingleRelationship(DynamicRelationshipType.withName("CHILD"), Direction.OUTGOING).getEndNode();
+            tx.success();
+            return year;
+        }
+    }
+
+    private long createEventForUser(int userId) {
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node node = getDatabase().createNode(Event);
+            node.setProperty("timestamp", TIMESTAMP);
+            node.setProperty("user_id", userId);
+            tx.success();
+            return node.getId();
+        }
+    }
+
+    private Node rootOf(long eventId) {
+        Node node = getDatabase().getNodeById(eventId).getSingleRelationship(DynamicRelationshipType.withName("AT_TIME"), Direction.OUTGOING).getEndNode();
+        while (node.hasRelationship(DynamicRelationshipType.withName("CHILD"), Direction.INCOMING)) {
+            node = node.getSingleRelationship(DynamicRelationshipType.withName("CHILD"), Direction.INCOMING).getStartNode();
+        }
+        return node;
+    }
+
     @Test
     public void shouldReAttachEventWithChangedTimestamp() {
         GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
@@ -338,6 +476,49 @@ public class TimeTreeModuleMultiRootProgrammaticTest extends DatabaseIntegration
         );
     }
 
+    @Test
+    public void shouldRemoveInstantsOfCustomRootLeftEmptyWhenEnabled() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withRemoveEmptyInstants(true), getDatabase()));
+        runtime.start();
+
+        long eventId;
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node node = getDatabase().createNode(Event);
+            node.setProperty("subject", "Neo4j");
+            node.setProperty("timestamp", 1426238522920L);
+            node.setProperty("timeTreeRootId", createCustomRoot());
+            eventId = node.getId();
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().getNodeById(eventId).setProperty("timestamp", TIMESTAMP);
+            tx.success();
+        }
+
+        //moving back must not find the removed instants in the custom root tree's cache
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().getNodeById(eventId).setProperty("timestamp", 1426238522920L);
+            tx.success();
+        }
+
+        assertSameGraph(getDatabase(), "CREATE " +
+                        "(event:Event {subject:'Neo4j', timeTreeRootId:1, timestamp:1426238522920})," +
+                        "(root:CustomRoot {name:'CustomRoot'})," +
+                        "(root)-[:FIRST]->(year:Year {value:2015})," +
+                        "(root)-[:CHILD]->(year)," +
+                        "(root)-[:LAST]->(year)," +
+                        "(year)-[:CHILD]->(month3:Month {value:3})," +
+                        "(year)-[:FIRST]->(month3)," +
+                        "(year)-[:LAST]->(month3)," +
+                        "(month3)-[:FIRST]->(day13:Day {value:13})," +
+                        "(month3)-[:CHILD]->(day13)," +
+                        "(month3)-[:LAST]->(day13)," +
+                        "(day13)<-[:AT_TIME]-(event)"
+        );
+    }
+
     @Test
     public void shouldUnAttachEventWithRemovedTimestamp() {
         GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
@@ -21,6 +21,12 @@ import com.graphaware.common.kv.KeyValueStore;
 import com.graphaware.common.policy.NodeInclusionPolicy;
 import com.graphaware.common.policy.NodePropertyInclusionPolicy;
 import com.graphaware.common.serialize.Serializer;
+import com.graphaware.module.timetree.SingleTimeTree;
+import com.graphaware.module.timetree.TimeTreeBackedEvents;
+import com.graphaware.module.timetree.domain.Aggregate;
+import com.graphaware.module.timetree.domain.AsyncAttach;
+import com.graphaware.module.timetree.domain.Rollup;
+import com.graphaware.module.timetree.domain.TimeInstant;
 import com.graphaware.runtime.GraphAwareRuntime;
 import com.graphaware.runtime.GraphAwareRuntimeFactory;
 import com.graphaware.runtime.metadata.DefaultTxDrivenModuleMetadata;
@@ -32,12 +38,21 @@ import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.TimeZone;
 
 import static com.graphaware.module.timetree.domain.Resolution.MINUTE;
 import static com.graphaware.module.timetree.domain.Resolution.MONTH;
+import static com.graphaware.module.timetree.domain.Resolution.YEAR;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.FIRST;
+import static com.graphaware.module.timetree.domain.TimeTreeRelationshipTypes.LAST;
 import static com.graphaware.test.unit.GraphUnit.assertSameGraph;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
 
 /**
  * Test for {@link com.graphaware.module.timetree.module.TimeTreeModule} set up programatically.
@@ -46,6 +61,7 @@ public class TimeTreeModuleSingleRootProgrammaticTest extends DatabaseIntegratio
 
     private static final Label Email = DynamicLabel.label("Email");
     private static final Label Event = DynamicLabel.label("Event");
+    private static final RelationshipType AT_TIME = DynamicRelationshipType.withName("AT_TIME");
     private static final long TIMESTAMP;
 
     static {
@@ -243,6 +259,79 @@ public class TimeTreeModuleSingleRootProgrammaticTest extends DatabaseIntegratio
         );
     }
 
+    @Test
+    public void shouldNotReAttachEventWhenTimestampStaysWithinTheSameInstant() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration(), getDatabase()));
+        runtime.start();
+
+        long eventId = createEvent(5);
+
+        long relationshipId;
+        try (Transaction tx = getDatabase().beginTx()) {
+            relationshipId = getDatabase().getNodeById(eventId).getSingleRelationship(AT_TIME, Direction.OUTGOING).getId();
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().getNodeById(eventId).setProperty("timestamp", TIMESTAMP + 1000);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(relationshipId, getDatabase().getNodeById(eventId).getSingleRelationship(AT_TIME, Direction.OUTGOING).getId());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldRemoveInstantsLeftEmptyWhenEnabled() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withRemoveEmptyInstants(true), getDatabase()));
+        runtime.start();
+
+        long eventId;
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node node = getDatabase().createNode(Event);
+            node.setProperty("subject", "Neo4j");
+            node.setProperty("timestamp", 1426238522920L);
+            eventId = node.getId();
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().getNodeById(eventId).setProperty("timestamp", TIMESTAMP);
+            tx.success();
+        }
+
+        assertSameGraph(getDatabase(), "CREATE " +
+                        "(event:Event {subject:'Neo4j', timestamp:" + TIMESTAMP + "})," +
+                        "(root:TimeTreeRoot)," +
+                        "(root)-[:FIRST]->(year:Year {value:2015})," +
+                        "(root)-[:CHILD]->(year)," +
+                        "(root)-[:LAST]->(year)," +
+                        "(year)-[:CHILD]->(month4:Month {value:4})," +
+                        "(year)-[:FIRST]->(month4)," +
+                        "(year)-[:LAST]->(month4)," +
+                        "(month4)-[:FIRST]->(day5:Day {value:5})," +
+                        "(month4)-[:CHILD]->(day5)," +
+                        "(month4)-[:LAST]->(day5)," +
+                        "(day5)<-[:AT_TIME]-(event)"
+        );
+
+        //moving to another day of the same month removes the day only
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().getNodeById(eventId).setProperty("timestamp", TIMESTAMP + 24 * 60 * 60 * 1000);
+            tx.success();
+        }
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1, count(getDatabase().findNodes(DynamicLabel.label("TimeTreeRoot"))));
+            assertEquals(1, count(getDatabase().findNodes(DynamicLabel.label("Day"))));
+            tx.success();
+        }
+    }
+
     @Test
     public void shouldUnAttachEventWithRemovedTimestamp() {
         GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
@@ -278,6 +367,281 @@ public class TimeTreeModuleSingleRootProgrammaticTest extends DatabaseIntegratio
         );
     }
 
+    @Test
+    public void shouldMaintainEventCountersWhenEnabled() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withEventCounters(true), getDatabase()));
+        runtime.start();
+
+        createEvent();
+        createEvent();
+
+        long eventId;
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node node = getDatabase().createNode(Event);
+            node.setProperty("timestamp", 1426238522920L);
+            eventId = node.getId();
+            tx.success();
+        }
+
+        assertEventCounts(3, 2, 2);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().getNodeById(eventId).setProperty("timestamp", TIMESTAMP);
+            tx.success();
+        }
+
+        assertEventCounts(3, 3, 3);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node event = getDatabase().getNodeById(eventId);
+            for (Relationship relationship : event.getRelationships()) {
+                relationship.delete();
+            }
+            event.delete();
+            tx.success();
+        }
+
+        assertEventCounts(2, 2, 2);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            TimeInstant year = TimeInstant.instant(TIMESTAMP).with(YEAR).with(DateTimeZone.UTC);
+            assertEquals(2, new TimeTreeBackedEvents(new SingleTimeTree(getDatabase())).countEvents(year, year, Collections.<RelationshipType>singleton(AT_TIME)));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldMaintainRollupsWhenDefined() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withRollup(new Rollup("amount:sum,min,max")), getDatabase()));
+        runtime.start();
+
+        long first = createEvent(5);
+        long second = createEvent(9);
+        createEvent(7);
+
+        assertRollup(3, 21.0, 5.0, 9.0);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            getDatabase().getNodeById(second).setProperty("amount", 1);
+            tx.success();
+        }
+
+        assertRollup(3, 13.0, 1.0, 7.0);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node event = getDatabase().getNodeById(second);
+            for (Relationship relationship : event.getRelationships()) {
+                relationship.delete();
+            }
+            event.delete();
+            getDatabase().getNodeById(first).removeProperty("amount");
+            tx.success();
+        }
+
+        assertRollup(1, 7.0, 7.0, 7.0);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            TimeInstant day = TimeInstant.instant(TIMESTAMP).with(DateTimeZone.UTC);
+            Aggregate aggregate = new TimeTreeBackedEvents(new SingleTimeTree(getDatabase())).aggregateEvents(day, day, Collections.<RelationshipType>singleton(AT_TIME), "amount");
+            assertEquals(1, aggregate.getCount());
+            assertEquals(7.0, aggregate.getAverage(), 0.0001);
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldAttachManyEventsCreatedInSingleTransaction() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withEventCounters(true), getDatabase()));
+        runtime.start();
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (int i = 0; i < 100; i++) {
+                Node node = getDatabase().createNode(Event);
+                node.setProperty("timestamp", i % 2 == 0 ? TIMESTAMP : TIMESTAMP - 24 * 60 * 60 * 1000);
+            }
+            tx.success();
+        }
+
+        assertEventCounts(100, 100, 50);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            ResourceIterator<Node> events = getDatabase().findNodes(Event);
+            while (events.hasNext()) {
+                assertEquals(1, events.next().getDegree(AT_TIME, Direction.OUTGOING));
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldNotAttachEventCreatedAndAttachedInSameTransactionTwice() {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration().withEventCounters(true), getDatabase()));
+        runtime.start();
+
+        long eventId;
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node node = getDatabase().createNode(Event);
+            node.setProperty("timestamp", TIMESTAMP);
+            new TimeTreeBackedEvents(new SingleTimeTree(getDatabase())).attachEvent(node, AT_TIME, TimeInstant.instant(TIMESTAMP));
+            eventId = node.getId();
+            tx.success();
+        }
+
+        assertEventCounts(1, 1, 1);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            assertEquals(1, getDatabase().getNodeById(eventId).getDegree(AT_TIME, Direction.OUTGOING));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldAttachEventsAsynchronouslyWhenEnabled() throws InterruptedException {
+        long pendingBeforeStart;
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node node = getDatabase().createNode(Event, DynamicLabel.label("TimeTreePending"));
+            node.setProperty("timestamp", TIMESTAMP);
+            pendingBeforeStart = node.getId();
+            tx.success();
+        }
+
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration()
+                .withEventCounters(true)
+                .withAsyncAttach(AsyncAttach.enabled().withBatchSize(2).withFlushInterval(50)), getDatabase()));
+        runtime.start();
+
+        long first = createEvent(5);
+        long second = createEvent(7);
+
+        waitUntilAttached(pendingBeforeStart, first, second);
+
+        assertEventCounts(3, 3, 3);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            for (long id : Arrays.asList(pendingBeforeStart, first, second)) {
+                assertFalse(getDatabase().getNodeById(id).hasLabel(DynamicLabel.label("TimeTreePending")));
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldMaintainRollupsOfEventsMovedAsynchronously() throws InterruptedException {
+        GraphAwareRuntime runtime = GraphAwareRuntimeFactory.createRuntime(getDatabase());
+        runtime.registerModule(new TimeTreeModule("timetree", TimeTreeConfiguration.defaultConfiguration()
+                .withRollup(new Rollup("amount:sum,min,max"))
+                .withAsyncAttach(AsyncAttach.enabled().withBatchSize(2).withFlushInterval(50)), getDatabase()));
+        runtime.start();
+
+        long first = createEvent(5);
+        long second = createEvent(9);
+        long third = createEvent(7);
+
+        waitUntilAttached(first, second, third);
+
+        assertRollup(3, 21.0, 5.0, 9.0);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node event = getDatabase().getNodeById(second);
+            event.setProperty("timestamp", TIMESTAMP + 24 * 60 * 60 * 1000);
+            event.setProperty("amount", 1);
+            tx.success();
+        }
+
+        waitUntilAttached(second);
+
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node root = getDatabase().findNodes(DynamicLabel.label("TimeTreeRoot")).next();
+            Node year = root.getSingleRelationship(FIRST, Direction.OUTGOING).getEndNode();
+            Node previousDay = year.getSingleRelationship(FIRST, Direction.OUTGOING).getEndNode().getSingleRelationship(FIRST, Direction.OUTGOING).getEndNode();
+            Node nextDay = year.getSingleRelationship(LAST, Direction.OUTGOING).getEndNode().getSingleRelationship(LAST, Direction.OUTGOING).getEndNode();
+
+            assertEquals(2L, previousDay.getProperty("rollup_amount_count"));
+            assertEquals(12.0, previousDay.getProperty("rollup_amount_sum"));
+            assertEquals(5.0, previousDay.getProperty("rollup_amount_min"));
+            assertEquals(7.0, previousDay.getProperty("rollup_amount_max"));
+
+            assertEquals(1L, nextDay.getProperty("rollup_amount_count"));
+            assertEquals(1.0, nextDay.getProperty("rollup_amount_sum"));
+
+            assertEquals(3L, year.getProperty("rollup_amount_count"));
+            assertEquals(13.0, year.getProperty("rollup_amount_sum"));
+            assertEquals(1.0, year.getProperty("rollup_amount_min"));
+            assertEquals(7.0, year.getProperty("rollup_amount_max"));
+
+            tx.success();
+        }
+    }
+
+    private void waitUntilAttached(long... ids) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try (Transaction tx = getDatabase().beginTx()) {
+                boolean attached = true;
+                for (long id : ids) {
+                    attached &= getDatabase().getNodeById(id).hasRelationship(AT_TIME, Direction.OUTGOING);
+                }
+                tx.success();
+
+                if (attached) {
+                    return;
+                }
+            }
+
+            Thread.sleep(50);
+        }
+
+        fail("Events have not been attached in time");
+    }
+
+    private long createEvent(int amount) {
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node node = getDatabase().createNode(Event);
+            node.setProperty("timestamp", TIMESTAMP);
+            node.setProperty("amount", amount);
+            tx.success();
+            return node.getId();
+        }
+    }
+
+    private void assertRollup(long count, double sum, double min, double max) {
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node root = getDatabase().findNodes(DynamicLabel.label("TimeTreeRoot")).next();
+            Node year = root.getSingleRelationship(FIRST, Direction.OUTGOING).getEndNode();
+            Node day = year.getSingleRelationship(FIRST, Direction.OUTGOING).getEndNode().getSingleRelationship(FIRST, Direction.OUTGOING).getEndNode();
+
+            for (Node instant : Arrays.asList(year, day)) {
+                assertEquals(count, instant.getProperty("rollup_amount_count"));
+                assertEquals(sum, instant.getProperty("rollup_amount_sum"));
+                assertEquals(min, instant.getProperty("rollup_amount_min"));
+                assertEquals(max, instant.getProperty("rollup_amount_max"));
+            }
+
+            tx.success();
+        }
+    }
+
+    private void assertEventCounts(long year, long april, long fifthOfApril) {
+        try (Transaction tx = getDatabase().beginTx()) {
+            Node root = getDatabase().findNodes(DynamicLabel.label("TimeTreeRoot")).next();
+            assertFalse(root.hasProperty("eventCount_AT_TIME"));
+
+            Node yearNode = root.getSingleRelationship(FIRST, Direction.OUTGOING).getEndNode();
+            Node aprilNode = yearNode.getSingleRelationship(LAST, Direction.OUTGOING).getEndNode();
+            Node dayNode = aprilNode.getSingleRelationship(LAST, Direction.OUTGOING).getEndNode();
+
+            assertEquals(year, yearNode.getProperty("eventCount_AT_TIME"));
+            assertEquals(april, aprilNode.getProperty("eventCount_AT_TIME"));
+            assertEquals(fifthOfApril, dayNode.getProperty("eventCount_AT_TIME"));
+
+            tx.success();
+        }
+    }
+
     @Test
     public void shouldAttachExistingEventsWhenModuleRegisteredForTheFirstTimeWithAutoAttachEnabled() {
         createEvent();